@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import net.frostedbytes.android.whereareyou.models.Friend;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decodes the same friend documents with DocumentMaps and with DocumentSnapshot.toObject() on the device's runtime.
+ * The documents are written to the local cache of a Firestore instance that never goes online, under a throwaway
+ * project, and read back as snapshots. Timings go to logcat rather than into assertions.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DocumentMapsBenchmark {
+
+    private static final String TAG = "DocumentMapsBenchmark";
+
+    private static final String APP_NAME = "document-maps-benchmark";
+    private static final int BATCH_SIZE = 500;
+    private static final int DOCUMENT_COUNT = 5000;
+    private static final int ROUNDS = 5;
+
+    private static List<DocumentSnapshot> sDocuments;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        FirebaseOptions options = new FirebaseOptions.Builder()
+            .setApiKey("benchmark")
+            .setApplicationId("1:1:android:1")
+            .setProjectId(APP_NAME)
+            .build();
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance(FirebaseApp.initializeApp(context, options, APP_NAME));
+        Tasks.await(firestore.disableNetwork());
+
+        // commits never complete offline, but the writes are visible to cache reads straight away
+        CollectionReference friends = firestore.collection(APP_NAME);
+        for (int start = 0; start < DOCUMENT_COUNT; start += BATCH_SIZE) {
+            WriteBatch batch = firestore.batch();
+            for (int index = start; index < Math.min(start + BATCH_SIZE, DOCUMENT_COUNT); index++) {
+                Map<String, Object> data = createDocument(index);
+                batch.set(friends.document((String) data.get("Id")), data);
+            }
+
+            batch.commit();
+        }
+
+        QuerySnapshot snapshot = Tasks.await(friends.get(Source.CACHE));
+        sDocuments = snapshot.getDocuments();
+        assertEquals(DOCUMENT_COUNT, sDocuments.size());
+    }
+
+    @Test
+    public void friendDecodeMatchesToObject() {
+
+        for (DocumentSnapshot document : sDocuments) {
+            Friend expected = document.toObject(Friend.class);
+            Friend actual = DocumentMaps.toFriend(document.getId(), document.getData());
+            assertEquals(expected.Email, actual.Email);
+            assertEquals(expected.FullName, actual.FullName);
+            assertEquals(expected.Id, actual.Id);
+            assertEquals(expected.Latitude, actual.Latitude, 0);
+            assertEquals(expected.Longitude, actual.Longitude, 0);
+            assertEquals(expected.Status, actual.Status);
+            assertEquals(expected.TimeStamp, actual.TimeStamp);
+            assertEquals(expected.UpdatedDate, actual.UpdatedDate);
+        }
+    }
+
+    @Test
+    public void friendDecodeVersusToObject() {
+
+        long sink = 0;
+        long best = Long.MAX_VALUE;
+        long bestMapper = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (DocumentSnapshot document : sDocuments) {
+                sink += DocumentMaps.toFriend(document.getId(), document.getData()).TimeStamp;
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (DocumentSnapshot document : sDocuments) {
+                sink += document.toObject(Friend.class).TimeStamp;
+            }
+
+            bestMapper = Math.min(bestMapper, System.nanoTime() - start);
+        }
+
+        Log.i(
+            TAG,
+            String.format(
+                Locale.ENGLISH,
+                "%d friends: DocumentMaps %.2f ms, toObject %.2f ms [%d]",
+                DOCUMENT_COUNT,
+                best / 1000000.0,
+                bestMapper / 1000000.0,
+                sink));
+    }
+
+    private static Map<String, Object> createDocument(int index) {
+
+        // some whole-number coordinates, which Firestore stores and returns as integers
+        Map<String, Object> data = new HashMap<>();
+        data.put("Email", String.format(Locale.ENGLISH, "friend%d@example.com", index));
+        data.put("FullName", String.format(Locale.ENGLISH, "Friend Number %d", index));
+        data.put("Id", String.format(Locale.ENGLISH, "friend-%08d", index));
+        data.put("Latitude", 40.0 + index / 1000.0);
+        data.put("Longitude", index % 10 == 0 ? -75L : -75.0 - index / 1000.0);
+        data.put("Status", (long) (index % 4));
+        data.put("TimeStamp", 1546300800000L + index);
+        data.put("UpdatedDate", 1546300800000L + index * 2);
+        return data;
+    }
+}
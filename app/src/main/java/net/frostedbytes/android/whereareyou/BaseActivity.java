@@ -28,7 +28,6 @@ public class BaseActivity  extends AppCompatActivity {
     public static final String ARG_USER = "user";
     public static final String ARG_USER_ID = "user_id";
     public static final String ARG_USER_NAME = "user_name";
-    public static final String DEFAULT_ID = "0000000000000000000000000000";
 
     public static final String BASE_TAG = "WhereAreYou::";
     private static final String TAG = BASE_TAG + BaseActivity.class.getSimpleName();
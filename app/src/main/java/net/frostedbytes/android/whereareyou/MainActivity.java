@@ -47,15 +47,32 @@ import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
-
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Collection;
+import java.util.List;
+
+import net.frostedbytes.android.whereareyou.data.DocumentMaps;
+import net.frostedbytes.android.whereareyou.data.FirestoreCosts;
+import net.frostedbytes.android.whereareyou.data.FriendsRepository;
+import net.frostedbytes.android.whereareyou.data.FriendshipCommands;
+import net.frostedbytes.android.whereareyou.data.Outbox;
+import net.frostedbytes.android.whereareyou.data.Refs;
+import net.frostedbytes.android.whereareyou.data.UserStore;
 import net.frostedbytes.android.whereareyou.fragments.ContactsFragment;
 import net.frostedbytes.android.whereareyou.fragments.FriendListFragment;
 import net.frostedbytes.android.whereareyou.fragments.MappingFragment;
+import net.frostedbytes.android.whereareyou.fragments.MetricsFragment;
 import net.frostedbytes.android.whereareyou.fragments.UserPreferencesFragment;
+import net.frostedbytes.android.whereareyou.location.LocationService;
+import net.frostedbytes.android.whereareyou.location.ProximityEngine;
+import net.frostedbytes.android.whereareyou.models.Contact;
 import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.ModelCodec;
 import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.utils.EmailUtils;
 import net.frostedbytes.android.whereareyou.utils.LogUtils;
-import net.frostedbytes.android.whereareyou.utils.PathUtils;
 
 public class MainActivity extends BaseActivity implements
     NavigationView.OnNavigationItemSelectedListener,
@@ -69,17 +86,54 @@ public class MainActivity extends BaseActivity implements
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 34;
     private static final int CONTACTS_PERMISSION_REQUEST_CODE = 35;
 
+    private static final String CONTENT_FRAGMENT_TAG = "content";
+    private static final String MAPPING_FRAGMENT_TAG = "mapping";
+
     private DrawerLayout mDrawerLayout;
     private NavigationView mNavigationView;
     private ProgressBar mProgressBar;
 
+    private FriendshipCommands mFriendshipCommands;
+    private FriendsRepository mFriendsRepository;
+    private boolean mInvitesDeferred;
     private User mUser;
 
+    /**
+     * Holds the shared friend list while the activity is visible, so fragments swapped in and out reuse one listener.
+     */
+    private final FriendsRepository.OnFriendsChangedListener mFriendsListener = new FriendsRepository.OnFriendsChangedListener() {
+
+        @Override
+        public void onFriendsChanged(Collection<String> changedIds) {
+
+            LogUtils.debug(TAG, "++onFriendsChanged(%d)", changedIds.size());
+        }
+
+        @Override
+        public void onFriendsQueryFailed() {
+
+            LogUtils.debug(TAG, "++onFriendsQueryFailed()");
+        }
+    };
+
     /*
         Activity Handling
      */
     @Override
     public void onCreate(Bundle savedInstanceState) {
+
+        // the user has to be in the store before super restores any fragments that look it up
+        if (savedInstanceState != null && savedInstanceState.containsKey(BaseActivity.ARG_USER)) {
+            mUser = ModelCodec.decodeUser(savedInstanceState.getByteArray(BaseActivity.ARG_USER));
+        } else {
+            mUser = new User();
+            mUser.Id = getIntent().getStringExtra(BaseActivity.ARG_USER_ID);
+            mUser.FullName = getIntent().getStringExtra(BaseActivity.ARG_USER_NAME);
+            mUser.Email = getIntent().getStringExtra(BaseActivity.ARG_EMAIL);
+        }
+
+        UserStore.put(mUser);
+        FirestoreCosts.init(this);
         super.onCreate(savedInstanceState);
 
         LogUtils.debug(TAG, "++onCreate(Bundle)");
@@ -114,22 +168,68 @@ public class MainActivity extends BaseActivity implements
         mNavigationView = findViewById(R.id.main_navigation_view);
         mNavigationView.setNavigationItemSelectedListener(this);
 
-        // get parameters from previous activity
-        mUser = new User();
-        mUser.Id = getIntent().getStringExtra(BaseActivity.ARG_USER_ID);
-        mUser.FullName = getIntent().getStringExtra(BaseActivity.ARG_USER_NAME);
-        mUser.Email = getIntent().getStringExtra(BaseActivity.ARG_EMAIL);
-
         View navigationHeaderView = mNavigationView.inflateHeaderView(R.layout.main_navigation_header);
         TextView navigationFullName = navigationHeaderView.findViewById(R.id.navigation_text_full_name);
         navigationFullName.setText(mUser.FullName);
+        navigationFullName.setOnLongClickListener(view -> { // hidden entry to the debug metrics
+
+            mDrawerLayout.closeDrawer(GravityCompat.START);
+            replaceFragment(MetricsFragment.newInstance());
+            return true;
+        });
         TextView navigationEmail = navigationHeaderView.findViewById(R.id.navigation_text_email);
         navigationEmail.setText(mUser.Email);
 
+        mFriendshipCommands = new FriendshipCommands(this, mUser);
+        mFriendsRepository = FriendsRepository.getInstance(mUser.Id);
+
+        // profile is written once per session; location fixes are published to the Locations collection
+        // directory entry lets other users find this account by the hash of its email
+        WriteBatch profileBatch = FirebaseFirestore.getInstance().batch();
+        profileBatch.set(
+            Refs.user(mUser.Id),
+            DocumentMaps.fromUser(mUser),
+            SetOptions.mergeFields("Email", "FullName", "Id"));
+        profileBatch.set(
+            Refs.directoryEntry(EmailUtils.hash(mUser.Email)),
+            DocumentMaps.fromUser(mUser),
+            SetOptions.mergeFields("FullName", "Id"));
+        FirestoreCosts.commit(FirestoreCosts.FEATURE_PROFILE, profileBatch, 2)
+            .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Profile successfully merged for %s", mUser.Id))
+            .addOnFailureListener(e -> LogUtils.warn(TAG, "Error merging profile for %s - %s", mUser.Id, e.getMessage()));
+        resolvePendingInvites();
+
         // check permission
         checkPermission(Manifest.permission.ACCESS_FINE_LOCATION, LOCATION_PERMISSION_REQUEST_CODE);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        LogUtils.debug(TAG, "++onStart()");
+        mFriendsRepository.addListener(mFriendsListener);
+        if (mInvitesDeferred) {
+            resolvePendingInvites();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+
+        LogUtils.debug(TAG, "++onStop()");
+        mFriendsRepository.removeListener(mFriendsListener);
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        LogUtils.debug(TAG, "++onSaveInstanceState(Bundle)");
+        outState.putByteArray(BaseActivity.ARG_USER, ModelCodec.encode(mUser));
+    }
+
     @Override
     public void onBackPressed() {
 
@@ -137,11 +237,11 @@ public class MainActivity extends BaseActivity implements
         if (mDrawerLayout.isDrawerOpen(GravityCompat.START)) {
             mDrawerLayout.closeDrawer(GravityCompat.START);
         } else {
-            Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.main_fragment_container);
-            if (fragment != null && fragment.getClass().getSimpleName().equals(FriendListFragment.class.getSimpleName())) {
+            Fragment fragment = getSupportFragmentManager().findFragmentByTag(CONTENT_FRAGMENT_TAG);
+            if (fragment == null || fragment.getClass().getSimpleName().equals(FriendListFragment.class.getSimpleName())) {
                 finish();
             } else {
-                replaceFragment(MappingFragment.newInstance(mUser));
+                showMap();
             }
         }
     }
@@ -168,8 +268,12 @@ public class MainActivity extends BaseActivity implements
                     .setMessage(R.string.logout_message)
                     .setPositiveButton(android.R.string.yes, (dialog1, which) -> {
 
-                        // sign out of firebase
+                        // stop sharing before signing out of firebase
+                        LocationService.stop(this);
                         FirebaseAuth.getInstance().signOut();
+                        UserStore.clear();
+                        Outbox.getInstance(this).clear();
+                        ProximityEngine.getInstance().clear();
 
                         // sign out of google, if necessary
                         GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
@@ -202,7 +306,8 @@ public class MainActivity extends BaseActivity implements
             case LOCATION_PERMISSION_REQUEST_CODE:
                 if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                     LogUtils.debug(TAG, "ACCESS_FINE_LOCATION permission granted.");
-                    replaceFragment(MappingFragment.newInstance(mUser));
+                    LocationService.start(this, mUser);
+                    showMap();
                 } else {
                     LogUtils.debug(TAG, "ACCESS_FINE_LOCATION permission denied.");
                 }
@@ -230,70 +335,43 @@ public class MainActivity extends BaseActivity implements
     public void onAcceptFriend(Friend friend) {
 
         LogUtils.debug(TAG, "++onAcceptFriend(Friend)");
-        friend.Status = 2;
-        String queryPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-        FirebaseFirestore.getInstance().collection(queryPath).document(friend.Id).set(friend)
-            .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Friend accept successfully written."))
-            .addOnFailureListener(e -> LogUtils.warn(TAG, "Error writing friend accept: %s", e.getMessage()));
-
-        /*
-            TODO: replace with server side functions
-            update mUser to friendId friend list too
-         */
-        queryPath = PathUtils.combine(User.USERS_ROOT, friend.Id, Friend.FRIENDS_ROOT);
-        Friend userAsFriend = new Friend(mUser);
-        userAsFriend.Status = 2;
-        FirebaseFirestore.getInstance().collection(queryPath).document(mUser.Id).set(userAsFriend)
-            .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Friend list successfully written!"))
-            .addOnFailureListener(e -> LogUtils.warn(TAG, "Error writing friend list: %s", e.getMessage()));
+        mFriendshipCommands.accept(friend);
     }
 
     @Override
-    public void onAddSharingContact(String name, String email) {
+    public void onAcceptFriends(List<Friend> friends) {
 
-        LogUtils.debug(TAG, "++onAddSharingContact(String, String)");
-        replaceFragment(MappingFragment.newInstance(mUser));
+        LogUtils.debug(TAG, "++onAcceptFriends(List<Friend>)");
+        mFriendshipCommands.acceptAll(friends);
+    }
 
-        // look for requested contact in data store
-        FirebaseFirestore.getInstance().collection(User.USERS_ROOT).whereEqualTo("Email", email).get().addOnCompleteListener(userTask -> {
+    @Override
+    public void onAddSharingContact(Contact contact) {
+
+        LogUtils.debug(TAG, "++onAddSharingContact(Contact)");
+        showMap();
+        if (contact.UserId != null) {
+            LogUtils.debug(TAG, "Contact already matched; creating request for %s", contact.Email);
+            User user = new User();
+            user.Email = contact.Email;
+            user.FullName = contact.DisplayName;
+            user.Id = contact.UserId;
+            mFriendshipCommands.request(user);
+            return;
+        }
+
+        // not matched yet, or not registered when last checked; look for requested contact in data store
+        String name = contact.DisplayName;
+        String email = contact.Email;
+        FirestoreCosts.get(FirestoreCosts.FEATURE_CONTACTS, Refs.users().whereEqualTo("Email", email)).addOnCompleteListener(userTask -> {
 
             if (userTask.isSuccessful() && userTask.getResult() != null && userTask.getResult().isEmpty()) {
                 LogUtils.debug(TAG, "Contact not found, creating placeholder for %s", email);
-
-                // add a place holder friend in list
-                Friend friend = new Friend();
-                friend.FullName = name;
-                friend.Email = email;
-                friend.Status = 1; // waiting
-                String queryPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-                FirebaseFirestore.getInstance().collection(queryPath).document(friend.getEmailAsKey()).set(friend)
-                    .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Placeholder friend request successfully written for %s", friend.getEmailAsKey()))
-                    .addOnFailureListener(e -> LogUtils.warn(TAG, "Error writing placeholder friend for %s - %s", friend.getEmailAsKey(), e.getMessage()));
+                mFriendshipCommands.invite(name, email);
             } else if (userTask.isSuccessful() && userTask.getResult() != null) {
                 LogUtils.debug(TAG, "Contact found; creating request for %s", email);
                 for (QueryDocumentSnapshot snapshot : userTask.getResult()) {
-                    User contact = snapshot.toObject(User.class);
-                    contact.Id = snapshot.getId();
-                    Friend friend = new Friend(contact);
-                    friend.Status = 1; // waiting
-                    String queryPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-                    FirebaseFirestore.getInstance().collection(queryPath).document(friend.Id).set(friend)
-                        .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Request successfully written for %s", email))
-                        .addOnFailureListener(e -> LogUtils.warn(TAG, "Error writing request for %s - %s", email, e.getMessage()));
-
-                    /*
-                        TODO: replace with server side functions
-                        add request
-                     */
-                    friend = new Friend();
-                    friend.Id = mUser.Id;
-                    friend.Email = mUser.Email;
-                    friend.FullName = mUser.Email;
-                    friend.Status = 0; // pending
-                    queryPath = PathUtils.combine(User.USERS_ROOT, friend.Id, Friend.FRIENDS_ROOT);
-                    FirebaseFirestore.getInstance().collection(queryPath).document(mUser.Id).set(friend)
-                        .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Request successfully written for %s", mUser.Email))
-                        .addOnFailureListener(e -> LogUtils.warn(TAG, "Error writing request for %s - %s", mUser.Email, e.getMessage()));
+                    mFriendshipCommands.request(DocumentMaps.toUser(snapshot.getId(), snapshot.getData()));
                 }
             } else if (userTask.isSuccessful()) {
                 LogUtils.debug(TAG, "Task was successful, but results were empty.");
@@ -310,25 +388,18 @@ public class MainActivity extends BaseActivity implements
         onDeleteFriend(friend);
     }
 
+    @Override
+    public void onDeclineFriends(List<Friend> friends) {
+
+        LogUtils.debug(TAG, "++onDeclineFriends(List<Friend>)");
+        mFriendshipCommands.deleteAll(friends);
+    }
+
     @Override
     public void onDeleteFriend(Friend friend) {
 
         LogUtils.debug(TAG, "++onDeleteFriend(Friend)");
-
-        // remove from friend list
-        String queryPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-        FirebaseFirestore.getInstance().collection(queryPath).document(friend.Id).delete()
-            .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Successfully deleted document %s", friend.Id))
-            .addOnFailureListener(e -> LogUtils.error(TAG, "Failed deleting document %s - %s", friend.Id, e.getMessage()));
-
-        /*
-            TODO: replace with server side functions
-            delete mUser from friendId friend list too
-         */
-        queryPath = PathUtils.combine(User.USERS_ROOT, friend.Id, Friend.FRIENDS_ROOT);
-        FirebaseFirestore.getInstance().collection(queryPath).document(mUser.Id).delete()
-            .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Successfully deleted document %s", mUser.Id))
-            .addOnFailureListener(e -> LogUtils.error(TAG, "Failed deleting document %s - %s", mUser.Id, e.getMessage()));
+        mFriendshipCommands.delete(friend);
     }
 
     @Override
@@ -377,7 +448,12 @@ public class MainActivity extends BaseActivity implements
             LogUtils.warn(TAG, "User was not initialized; defaulting frequency value.");
         }
 
-        replaceFragment(MappingFragment.newInstance(mUser));
+        // the running service re-arms its location request with the new frequency; the map itself is left as is
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+            LocationService.start(this, mUser);
+        }
+
+        showMap();
     }
 
     @Override
@@ -426,22 +502,87 @@ public class MainActivity extends BaseActivity implements
                     replaceFragment(ContactsFragment.newInstance());
                     break;
                 case LOCATION_PERMISSION_REQUEST_CODE:
-                    replaceFragment(MappingFragment.newInstance(mUser));
+                    LocationService.start(this, mUser);
+                    showMap();
                     break;
             }
         }
     }
 
+    /*
+        TODO: replace with server side function
+     */
+    private void resolvePendingInvites() {
+
+        LogUtils.debug(TAG, "++resolvePendingInvites()");
+        mInvitesDeferred = FirestoreCosts.isOverBudget(FirestoreCosts.FEATURE_INVITES);
+        if (mInvitesDeferred) { // retried from onStart() once the budget allows
+            LogUtils.debug(TAG, "Read budget exceeded; deferring invite scan.");
+            return;
+        }
+
+        FirestoreCosts.get(FirestoreCosts.FEATURE_INVITES, Refs.requesters(EmailUtils.hash(mUser.Email))).addOnCompleteListener(task -> {
+
+            if (task.isSuccessful() && task.getResult() != null) {
+                for (QueryDocumentSnapshot snapshot : task.getResult()) {
+                    mFriendshipCommands.resolve(DocumentMaps.toInvite(snapshot.getId(), snapshot.getData()));
+                }
+            } else {
+                LogUtils.debug(TAG, "Invite query was unsuccessful.");
+            }
+        });
+    }
+
+    /**
+     * Shows the given screen over the map; the map is hidden rather than removed so its view and GL context survive.
+     *
+     * @param fragment - Screen to show; replaces any other screen that is not the map
+     */
     private void replaceFragment(Fragment fragment) {
 
         LogUtils.debug(TAG, "++replaceFragment(Fragment)");
         FragmentManager fragmentManager = getSupportFragmentManager();
         FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
-        fragmentTransaction.replace(R.id.main_fragment_container, fragment);
+        Fragment content = fragmentManager.findFragmentByTag(CONTENT_FRAGMENT_TAG);
+        if (content != null) {
+            fragmentTransaction.remove(content);
+        }
+
+        Fragment mapping = fragmentManager.findFragmentByTag(MAPPING_FRAGMENT_TAG);
+        if (mapping != null) {
+            fragmentTransaction.hide(mapping);
+        }
+
+        fragmentTransaction.add(R.id.main_fragment_container, fragment, CONTENT_FRAGMENT_TAG);
         fragmentTransaction.commit();
         updateTitleAndDrawer(fragment);
     }
 
+    /**
+     * Shows the map, creating it the first time; every later call reuses the same instance.
+     */
+    private void showMap() {
+
+        LogUtils.debug(TAG, "++showMap()");
+        FragmentManager fragmentManager = getSupportFragmentManager();
+        FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
+        Fragment content = fragmentManager.findFragmentByTag(CONTENT_FRAGMENT_TAG);
+        if (content != null) {
+            fragmentTransaction.remove(content);
+        }
+
+        Fragment mapping = fragmentManager.findFragmentByTag(MAPPING_FRAGMENT_TAG);
+        if (mapping == null) {
+            mapping = MappingFragment.newInstance(mUser);
+            fragmentTransaction.add(R.id.main_fragment_container, mapping, MAPPING_FRAGMENT_TAG);
+        } else {
+            fragmentTransaction.show(mapping);
+        }
+
+        fragmentTransaction.commit();
+        updateTitleAndDrawer(mapping);
+    }
+
     private void updateTitleAndDrawer(Fragment fragment) {
 
         LogUtils.debug(TAG, "++updateTitleAndDrawer(Fragment)");
@@ -461,6 +602,11 @@ public class MainActivity extends BaseActivity implements
             mNavigationView.getMenu().findItem(R.id.navigation_menu_friends).setEnabled(true);
             mNavigationView.getMenu().findItem(R.id.navigation_menu_preferences).setEnabled(true);
             setTitle("Select a contact");
+        } else if (fragmentClassName.equals(MetricsFragment.class.getName())) {
+            mNavigationView.getMenu().findItem(R.id.navigation_menu_home).setEnabled(true);
+            mNavigationView.getMenu().findItem(R.id.navigation_menu_friends).setEnabled(true);
+            mNavigationView.getMenu().findItem(R.id.navigation_menu_preferences).setEnabled(true);
+            setTitle("Metrics");
         } else {
             mNavigationView.getMenu().findItem(R.id.navigation_menu_home).setEnabled(true);
             mNavigationView.getMenu().findItem(R.id.navigation_menu_friends).setEnabled(true);
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.os.AsyncTask;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.frostedbytes.android.whereareyou.models.Contact;
+import net.frostedbytes.android.whereareyou.utils.EmailUtils;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Finds which contacts are registered users. Every user has a Directory/{hash of email} entry, so contacts are
+ * resolved by hashing their normalized email and reading those entries a chunk at a time; outcomes are kept in the
+ * contacts index until they are older than MATCH_TTL.
+ */
+public class ContactMatcher {
+
+    private static final String TAG = BASE_TAG + ContactMatcher.class.getSimpleName();
+
+    /**
+     * Number of directory entries read per round trip.
+     */
+    static final int CHUNK_SIZE = 10;
+
+    /**
+     * How long a lookup, positive or negative, is trusted before the contact is checked again; in ticks.
+     */
+    public static final long MATCH_TTL = TimeUnit.DAYS.toMillis(1);
+
+    public interface OnContactsMatchedListener {
+
+        /**
+         * @param contacts - Contacts looked up in this chunk; UserId is set on those that are registered
+         */
+        void onContactsMatched(List<Contact> contacts);
+    }
+
+    private final ContactsIndex mContactsIndex;
+
+    public ContactMatcher(ContactsIndex contactsIndex) {
+
+        mContactsIndex = contactsIndex;
+    }
+
+    /**
+     * Looks up the contacts in the user directory; chunks are read one after another and reported as they complete.
+     *
+     * @param contacts - Contacts due for a lookup
+     * @param listener - Receives each chunk of resolved contacts
+     */
+    public void match(List<Contact> contacts, OnContactsMatchedListener listener) {
+
+        LogUtils.debug(TAG, "++match(%d)", contacts.size());
+        Map<String, List<Contact>> contactsByHash = new HashMap<>();
+        for (Contact contact : contacts) {
+            String hash = EmailUtils.hash(contact.Email);
+            List<Contact> sameEmail = contactsByHash.get(hash);
+            if (sameEmail == null) {
+                sameEmail = new ArrayList<>();
+                contactsByHash.put(hash, sameEmail);
+            }
+
+            sameEmail.add(contact);
+        }
+
+        matchChunk(new ArrayList<>(contactsByHash.keySet()), 0, contactsByHash, listener);
+    }
+
+    private void matchChunk(List<String> hashes, int start, Map<String, List<Contact>> contactsByHash, OnContactsMatchedListener listener) {
+
+        if (start >= hashes.size()) {
+            return;
+        }
+
+        if (FirestoreCosts.isOverBudget(FirestoreCosts.FEATURE_CONTACTS)) {
+            LogUtils.debug(TAG, "Read budget exceeded; leaving %d contact(s) for a later pass.", hashes.size() - start);
+            return;
+        }
+
+        List<String> chunk = hashes.subList(start, Math.min(start + CHUNK_SIZE, hashes.size()));
+        List<Task<DocumentSnapshot>> lookups = new ArrayList<>();
+        for (String hash : chunk) {
+            lookups.add(FirestoreCosts.get(FirestoreCosts.FEATURE_CONTACTS, Refs.directoryEntry(hash)));
+        }
+
+        Tasks.whenAllComplete(lookups).addOnCompleteListener(task -> {
+
+            List<Contact> matched = new ArrayList<>();
+            boolean failed = false;
+            for (int index = 0; index < chunk.size(); index++) {
+                Task<DocumentSnapshot> lookup = lookups.get(index);
+                if (!lookup.isSuccessful() || lookup.getResult() == null) {
+                    failed = true; // left unmatched so the next pass tries again
+                    continue;
+                }
+
+                DocumentSnapshot snapshot = lookup.getResult();
+                String userId = snapshot.exists() ? snapshot.getString("Id") : null;
+                List<Contact> sameEmail = contactsByHash.get(chunk.get(index));
+                for (Contact contact : sameEmail) {
+                    contact.UserId = userId;
+                }
+
+                matched.addAll(sameEmail);
+            }
+
+            if (!matched.isEmpty()) {
+                long matchedAt = Calendar.getInstance().getTimeInMillis();
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> mContactsIndex.setMatches(matched, matchedAt));
+                listener.onContactsMatched(matched);
+            }
+
+            if (failed) {
+                LogUtils.warn(TAG, "Directory lookup failed; skipping remaining contacts.");
+                return;
+            }
+
+            matchChunk(hashes, start + CHUNK_SIZE, contactsByHash, listener);
+        });
+    }
+}
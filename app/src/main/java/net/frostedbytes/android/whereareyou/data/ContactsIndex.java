@@ -0,0 +1,370 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.frostedbytes.android.whereareyou.models.Contact;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * On-device copy of the email addresses in the address book. The first sync reads every email row; later syncs only
+ * read contacts updated or deleted since the previous sync point.
+ */
+public class ContactsIndex extends SQLiteOpenHelper {
+
+    private static final String TAG = BASE_TAG + ContactsIndex.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "contacts.db";
+    private static final int DATABASE_VERSION = 2;
+    private static final String TABLE_CONTACTS = "Contacts";
+    private static final String TABLE_SYNC = "Sync";
+    private static final String COLUMN_CONTACT_ID = "ContactId";
+    private static final String COLUMN_DISPLAY_NAME = "DisplayName";
+    private static final String COLUMN_EMAIL = "Email";
+    private static final String COLUMN_LAST_SYNC = "LastSync";
+    private static final String COLUMN_MATCHED_AT = "MatchedAt";
+    private static final String COLUMN_PHOTO_URI = "PhotoUri";
+    private static final String COLUMN_USER_ID = "UserId";
+
+    private static final String[] COLUMNS = new String[]{
+        COLUMN_CONTACT_ID,
+        COLUMN_DISPLAY_NAME,
+        COLUMN_PHOTO_URI,
+        COLUMN_EMAIL,
+        COLUMN_USER_ID
+    };
+
+    private static final String[] PROJECTION = new String[]{
+        ContactsContract.CommonDataKinds.Email.CONTACT_ID,
+        ContactsContract.CommonDataKinds.Email.DISPLAY_NAME_PRIMARY,
+        ContactsContract.CommonDataKinds.Email.PHOTO_THUMBNAIL_URI,
+        ContactsContract.CommonDataKinds.Email.ADDRESS
+    };
+
+    public interface OnPageReadListener {
+
+        void onPageRead(List<Contact> page);
+    }
+
+    private static ContactsIndex sInstance;
+
+    public static synchronized ContactsIndex getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new ContactsIndex(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private ContactsIndex(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase database) {
+
+        database.execSQL("CREATE TABLE " + TABLE_CONTACTS + " (" +
+            COLUMN_CONTACT_ID + " INTEGER NOT NULL, " +
+            COLUMN_DISPLAY_NAME + " TEXT NOT NULL, " +
+            COLUMN_EMAIL + " TEXT NOT NULL, " +
+            COLUMN_PHOTO_URI + " TEXT, " +
+            COLUMN_USER_ID + " TEXT, " +
+            COLUMN_MATCHED_AT + " INTEGER NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (" + COLUMN_CONTACT_ID + ", " + COLUMN_EMAIL + "))");
+        database.execSQL("CREATE INDEX ContactsByName ON " + TABLE_CONTACTS + " (" + COLUMN_DISPLAY_NAME + ")");
+        database.execSQL("CREATE TABLE " + TABLE_SYNC + " (" + COLUMN_LAST_SYNC + " INTEGER NOT NULL)");
+        database.execSQL("INSERT INTO " + TABLE_SYNC + " VALUES (0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+
+        database.execSQL("DROP TABLE IF EXISTS " + TABLE_CONTACTS);
+        database.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC);
+        onCreate(database);
+    }
+
+    /**
+     * @return - Time of the last successful sync, or 0 if the index has never been built; in ticks
+     */
+    public long getLastSync() {
+
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SYNC, null, null, null, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Reads the index in display order, a page at a time.
+     *
+     * @param pageSize - Number of contacts per page
+     * @param listener - Receives each page
+     */
+    public void read(int pageSize, OnPageReadListener listener) {
+
+        try (Cursor cursor = getReadableDatabase().query(
+            TABLE_CONTACTS,
+            COLUMNS,
+            null,
+            null,
+            null,
+            null,
+            COLUMN_DISPLAY_NAME + " COLLATE LOCALIZED ASC")) {
+            readPages(cursor, pageSize, listener);
+        }
+    }
+
+    /**
+     * Returns the contacts that have not been checked against the user directory since the given time; rows added or
+     * replaced by a sync have never been checked.
+     *
+     * @param checkedBefore - Rows checked at or after this time are skipped; in ticks
+     * @return - Contacts due for a directory lookup
+     */
+    public List<Contact> readUnmatched(long checkedBefore) {
+
+        List<Contact> contacts = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(
+            TABLE_CONTACTS,
+            COLUMNS,
+            COLUMN_MATCHED_AT + " < ?",
+            new String[]{String.valueOf(checkedBefore)},
+            null,
+            null,
+            null)) {
+            readPages(cursor, Integer.MAX_VALUE, contacts::addAll);
+        }
+
+        return contacts;
+    }
+
+    /**
+     * Records the outcome of a directory lookup; contacts without a UserId are known not to be registered.
+     *
+     * @param contacts - Contacts that were looked up
+     * @param matchedAt - Time of the lookup; in ticks
+     */
+    public void setMatches(List<Contact> contacts, long matchedAt) {
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (Contact contact : contacts) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_USER_ID, contact.UserId);
+                values.put(COLUMN_MATCHED_AT, matchedAt);
+                database.update(
+                    TABLE_CONTACTS,
+                    values,
+                    COLUMN_CONTACT_ID + " = ? AND " + COLUMN_EMAIL + " = ?",
+                    new String[]{String.valueOf(contact.ContactId), contact.Email});
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Replaces the whole index with the email rows of the address book.
+     *
+     * @param contentResolver - Resolver used to read the contacts provider
+     * @param pageSize - Number of contacts per page
+     * @param listener - Receives each page as it is read from the provider
+     */
+    public void rebuild(ContentResolver contentResolver, int pageSize, OnPageReadListener listener) {
+
+        LogUtils.debug(TAG, "++rebuild(ContentResolver, int, OnPageReadListener)");
+        long syncPoint = Calendar.getInstance().getTimeInMillis();
+        Cursor cursor = contentResolver.query(
+            ContactsContract.CommonDataKinds.Email.CONTENT_URI,
+            PROJECTION,
+            null,
+            null,
+            ContactsContract.CommonDataKinds.Email.DISPLAY_NAME_PRIMARY + " COLLATE LOCALIZED ASC");
+        if (cursor == null) {
+            LogUtils.error(TAG, "Unable to query contacts.");
+            return;
+        }
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.delete(TABLE_CONTACTS, null, null);
+            SQLiteStatement insert = compileInsert(database);
+            readPages(cursor, pageSize, page -> {
+                insertAll(insert, page);
+                listener.onPageRead(page);
+            });
+            setLastSync(database, syncPoint);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            cursor.close();
+        }
+    }
+
+    /**
+     * Applies the contacts updated or deleted since the last sync. The provider only remembers deletions for
+     * DeletedContacts.DAYS_KEPT_MILLISECONDS, so an index last synced before that is rebuilt instead.
+     *
+     * @param contentResolver - Resolver used to read the contacts provider
+     * @return - True if the index changed
+     */
+    public boolean sync(ContentResolver contentResolver) {
+
+        LogUtils.debug(TAG, "++sync(ContentResolver)");
+        long lastSync = getLastSync();
+        long syncPoint = Calendar.getInstance().getTimeInMillis();
+        if (syncPoint - lastSync >= ContactsContract.DeletedContacts.DAYS_KEPT_MILLISECONDS) {
+            LogUtils.debug(TAG, "Deletions since the last sync are no longer known; rebuilding index.");
+            rebuild(contentResolver, Integer.MAX_VALUE, page -> { });
+            return true;
+        }
+
+        String[] lastSyncArgs = new String[]{String.valueOf(lastSync)};
+        Set<Long> changedIds = new HashSet<>();
+        try (Cursor cursor = contentResolver.query(
+            ContactsContract.DeletedContacts.CONTENT_URI,
+            new String[]{ContactsContract.DeletedContacts.CONTACT_ID},
+            ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+            lastSyncArgs,
+            null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                changedIds.add(cursor.getLong(0));
+            }
+        }
+
+        // a contact whose last address was removed has no email rows left, so updated ids come from the contacts table
+        try (Cursor cursor = contentResolver.query(
+            ContactsContract.Contacts.CONTENT_URI,
+            new String[]{ContactsContract.Contacts._ID},
+            ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+            lastSyncArgs,
+            null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                changedIds.add(cursor.getLong(0));
+            }
+        }
+
+        List<Contact> updated = new ArrayList<>();
+        try (Cursor cursor = contentResolver.query(
+            ContactsContract.CommonDataKinds.Email.CONTENT_URI,
+            PROJECTION,
+            ContactsContract.CommonDataKinds.Email.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+            lastSyncArgs,
+            null)) {
+            if (cursor != null) {
+                readPages(cursor, Integer.MAX_VALUE, updated::addAll);
+            }
+        }
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (Long contactId : changedIds) { // rows for updated contacts are replaced, not merged
+                database.delete(TABLE_CONTACTS, COLUMN_CONTACT_ID + " = ?", new String[]{String.valueOf(contactId)});
+            }
+
+            insertAll(compileInsert(database), updated);
+            setLastSync(database, syncPoint);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        LogUtils.debug(TAG, "Synced %d changed contact(s).", changedIds.size());
+        return !changedIds.isEmpty();
+    }
+
+    private static SQLiteStatement compileInsert(SQLiteDatabase database) {
+
+        return database.compileStatement("INSERT OR REPLACE INTO " + TABLE_CONTACTS + " (" +
+            COLUMN_CONTACT_ID + ", " + COLUMN_DISPLAY_NAME + ", " + COLUMN_PHOTO_URI + ", " + COLUMN_EMAIL +
+            ") VALUES (?, ?, ?, ?)");
+    }
+
+    private static void insertAll(SQLiteStatement insert, List<Contact> contacts) {
+
+        for (Contact contact : contacts) {
+            insert.clearBindings();
+            insert.bindLong(1, contact.ContactId);
+            insert.bindString(2, contact.DisplayName);
+            if (contact.PhotoUri != null) {
+                insert.bindString(3, contact.PhotoUri);
+            }
+
+            insert.bindString(4, contact.Email);
+
+            insert.executeInsert();
+        }
+    }
+
+    /**
+     * Reads rows with columns in the order: contact id, display name, photo URI, email and, for index rows, user id.
+     */
+    private static void readPages(Cursor cursor, int pageSize, OnPageReadListener listener) {
+
+        List<Contact> page = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            String email = cursor.getString(3);
+            if (email == null || email.isEmpty()) {
+                continue;
+            }
+
+            Contact contact = new Contact(cursor.getLong(0), cursor.getString(1), email, cursor.getString(2));
+            if (cursor.getColumnCount() > 4) {
+                contact.UserId = cursor.getString(4);
+            }
+
+            page.add(contact);
+            if (page.size() == pageSize) {
+                listener.onPageRead(page);
+                page = new ArrayList<>();
+            }
+        }
+
+        if (!page.isEmpty()) {
+            listener.onPageRead(page);
+        }
+    }
+
+    private static void setLastSync(SQLiteDatabase database, long syncPoint) {
+
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_LAST_SYNC, syncPoint);
+        database.update(TABLE_SYNC, values, null, null);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import net.frostedbytes.android.whereareyou.metrics.CostLedger;
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.Invite;
+import net.frostedbytes.android.whereareyou.models.UserLocation;
+
+/**
+ * Issues Firestore reads and writes on behalf of a feature and charges the documents billed to it in the
+ * {@link CostLedger}. Results served from the local cache are not billed and are not counted. Soft budgets are set
+ * here; features whose work can wait check {@link #isOverBudget(String)} before starting it. The current hour's totals
+ * are saved to shared preferences after every charge, so restarting the process does not reset the budgets.
+ */
+public class FirestoreCosts {
+
+    public static final String FEATURE_CONTACTS = "contacts";
+    public static final String FEATURE_FRIENDS = "friends";
+    public static final String FEATURE_INVITES = "invites";
+    public static final String FEATURE_LOCATION = "location";
+    public static final String FEATURE_MAP = "map";
+    public static final String FEATURE_PROFILE = "profile";
+
+    /*
+        Soft budgets, in documents per clock hour; location publishing and user actions are never deferred, so their
+        budgets only count towards the total
+     */
+    private static final long TOTAL_READS_PER_HOUR = 5000;
+    private static final long TOTAL_WRITES_PER_HOUR = 1000;
+    private static final long CONTACTS_READS_PER_HOUR = 1000;
+    private static final long INVITES_READS_PER_HOUR = 100;
+
+    private static final String PREFERENCES_NAME = "firestore_costs";
+    private static final String KEY_HOUR = "hour";
+
+    private static volatile SharedPreferences sPreferences;
+
+    static {
+        CostLedger.setBudget(CostLedger.TOTAL, TOTAL_READS_PER_HOUR, TOTAL_WRITES_PER_HOUR);
+        CostLedger.setBudget(FEATURE_CONTACTS, CONTACTS_READS_PER_HOUR, 0);
+        CostLedger.setBudget(FEATURE_INVITES, INVITES_READS_PER_HOUR, 0);
+    }
+
+    /**
+     * Restores the hourly totals saved by an earlier process; later calls do nothing.
+     *
+     * @param context - Any context; only the application context is kept
+     */
+    public static synchronized void init(Context context) {
+
+        if (sPreferences == null) {
+            sPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            CostLedger.restoreHour(sPreferences.getString(KEY_HOUR, null));
+        }
+    }
+
+    /**
+     * Zeroes the hourly totals, e.g. along with Metrics.reset() from the debug screen.
+     */
+    public static void reset() {
+
+        CostLedger.reset();
+        save();
+    }
+
+    /**
+     * @param feature - Feature label
+     * @return - True if the feature, or the app as a whole, has read or written more than its budget this hour
+     */
+    public static boolean isOverBudget(String feature) {
+        return CostLedger.isOverBudget(feature);
+    }
+
+    /**
+     * @param feature - Feature label
+     * @param document - Document to read
+     * @return - Task of the read; billed as one document
+     */
+    public static Task<DocumentSnapshot> get(String feature, DocumentReference document) {
+
+        Task<DocumentSnapshot> task = document.get();
+        task.addOnSuccessListener(snapshot -> {
+
+            if (!snapshot.getMetadata().isFromCache()) {
+                CostLedger.read(feature, 1);
+                save();
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * @param feature - Feature label
+     * @param query - Query to run
+     * @return - Task of the query; billed per document returned, or one document if none are
+     */
+    public static Task<QuerySnapshot> get(String feature, Query query) {
+
+        Task<QuerySnapshot> task = query.get();
+        task.addOnSuccessListener(snapshot -> {
+
+            if (!snapshot.getMetadata().isFromCache()) {
+                CostLedger.read(feature, Math.max(1, snapshot.size()));
+                save();
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * The first snapshot from the server is billed for every document in the result, or one document if there are
+     * none; later snapshots for what changed. With offline persistence the first snapshot usually comes from the cache,
+     * so the server's first one only lists changes and cannot be billed by those.
+     *
+     * @param feature - Feature label
+     * @param query - Query to listen to
+     * @param listener - Receives every snapshot
+     * @return - Registration of the listener
+     */
+    public static ListenerRegistration listen(String feature, Query query, EventListener<QuerySnapshot> listener) {
+
+        return query.addSnapshotListener(new EventListener<QuerySnapshot>() {
+
+            private boolean mServerSnapshotSeen;
+
+            @Override
+            public void onEvent(QuerySnapshot snapshot, FirebaseFirestoreException e) {
+
+                if (snapshot != null && !snapshot.getMetadata().isFromCache()) {
+                    if (mServerSnapshotSeen) {
+                        CostLedger.read(feature, snapshot.getDocumentChanges().size());
+                    } else {
+                        CostLedger.read(feature, Math.max(1, snapshot.size()));
+                        mServerSnapshotSeen = true;
+                    }
+
+                    save();
+                }
+
+                listener.onEvent(snapshot, e);
+            }
+        });
+    }
+
+    /**
+     * @param feature - Feature label
+     * @param batch - Batch to commit
+     * @param writes - Documents written by the batch
+     * @return - Task of the commit
+     */
+    public static Task<Void> commit(String feature, WriteBatch batch, int writes) {
+
+        Task<Void> task = batch.commit();
+        task.addOnSuccessListener(aVoid -> {
+
+            CostLedger.write(feature, writes);
+            save();
+        });
+        return task;
+    }
+
+    /**
+     * Charges a document written through the outbox, which batches writes of several features together.
+     *
+     * @param path - Path of the document written
+     */
+    static void wrote(String path) {
+
+        CostLedger.write(featureOf(path), 1);
+        save();
+    }
+
+    /**
+     * @param path - Path of a document
+     * @return - Feature that owns documents at the path
+     */
+    private static String featureOf(String path) {
+
+        if (path.startsWith(UserLocation.LOCATIONS_ROOT + "/")) {
+            return FEATURE_LOCATION;
+        } else if (path.startsWith(Invite.INVITES_ROOT + "/")) {
+            return FEATURE_INVITES;
+        } else if (path.contains("/" + Friend.FRIENDS_ROOT + "/")) {
+            return FEATURE_FRIENDS;
+        }
+
+        return FEATURE_PROFILE;
+    }
+
+    private static void save() {
+
+        SharedPreferences preferences = sPreferences;
+        if (preferences != null) {
+            preferences.edit().putString(KEY_HOUR, CostLedger.getHourState()).apply();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.frostedbytes.android.whereareyou.metrics.Counter;
+import net.frostedbytes.android.whereareyou.metrics.Metrics;
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Process-wide view of the signed in user's friend list. One snapshot listener on Users/{id}/Friends is shared by
+ * every screen; it is attached while at least one listener is registered and kept for a short while after the last
+ * one leaves, so moving between screens does not re-read the collection. Must be used from the main thread.
+ *
+ * Friends handed out are the repository's own instances and are shared by every screen; they are read-only, and
+ * callers that need a changed friend work on a copy made with new Friend(Friend).
+ */
+public class FriendsRepository {
+
+    private static final String TAG = BASE_TAG + FriendsRepository.class.getSimpleName();
+
+    /**
+     * How long the snapshot listener is kept after the last listener is removed; in milliseconds.
+     */
+    private static final long LINGER_MILLIS = 5000;
+
+    /**
+     * How long to wait before re-attaching a snapshot listener that Firestore ended with an error; in milliseconds.
+     */
+    private static final long RETRY_MILLIS = 30000;
+
+    public interface OnFriendsChangedListener {
+
+        /**
+         * @param changedIds - Identifiers of friends added, modified or removed since the last call
+         */
+        void onFriendsChanged(Collection<String> changedIds);
+
+        void onFriendsQueryFailed();
+    }
+
+    private static final Counter sSnapshots = Metrics.counter("friends.snapshots");
+
+    private static FriendsRepository sInstance;
+
+    private final Map<String, Friend> mFriends;
+    private final Map<Integer, Map<String, Friend>> mFriendsByStatus;
+    private final Map<String, Integer> mIndexedStatus;
+    private final Handler mHandler;
+    private final List<OnFriendsChangedListener> mListeners;
+    private final String mUserId;
+
+    private boolean mLoaded;
+    private ListenerRegistration mRegistration;
+    private boolean mReplaceOnNextSnapshot;
+    private long mSnapshotTime;
+
+    private final Runnable mRetry = this::retry;
+    private final Runnable mStopListening = this::stopListening;
+
+    /**
+     * @param userId - Identifier of the signed in user; a different user replaces the previous repository
+     * @return - Repository for the user's friend list
+     */
+    public static synchronized FriendsRepository getInstance(String userId) {
+
+        if (sInstance == null || !sInstance.mUserId.equals(userId)) {
+            if (sInstance != null) {
+                sInstance.stopListening();
+            }
+
+            sInstance = new FriendsRepository(userId);
+        }
+
+        return sInstance;
+    }
+
+    private FriendsRepository(String userId) {
+
+        mFriends = new HashMap<>();
+        mFriendsByStatus = new HashMap<>();
+        mIndexedStatus = new HashMap<>();
+        mHandler = new Handler(Looper.getMainLooper());
+        mListeners = new ArrayList<>();
+        mUserId = userId;
+    }
+
+    /**
+     * Registers the listener; if the friend list is already loaded it is called straight away with every friend.
+     *
+     * @param listener - Listener to notify of changes
+     */
+    public void addListener(OnFriendsChangedListener listener) {
+
+        LogUtils.debug(TAG, "++addListener(OnFriendsChangedListener)");
+        mHandler.removeCallbacks(mStopListening);
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+
+        if (mRegistration == null) {
+            startListening();
+        } else if (mLoaded) {
+            listener.onFriendsChanged(new ArrayList<>(mFriends.keySet()));
+        }
+    }
+
+    public void removeListener(OnFriendsChangedListener listener) {
+
+        LogUtils.debug(TAG, "++removeListener(OnFriendsChangedListener)");
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            mHandler.postDelayed(mStopListening, LINGER_MILLIS);
+        }
+    }
+
+    /**
+     * @return - True once the first snapshot has been applied
+     */
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * @param friendId - Identifier of the friend
+     * @return - Friend with the identifier, or null if not in the list; read-only
+     */
+    public Friend getFriend(String friendId) {
+        return mFriends.get(friendId);
+    }
+
+    /**
+     * @return - Every friend, regardless of status; read-only
+     */
+    public Collection<Friend> getFriends() {
+        return Collections.unmodifiableCollection(mFriends.values());
+    }
+
+    /**
+     * @return - System.nanoTime() at which the snapshot being delivered arrived; 0 outside of onFriendsChanged() calls
+     *  made for a snapshot
+     */
+    public long getSnapshotTime() {
+        return mSnapshotTime;
+    }
+
+    /**
+     * @param status - 0 = pending, 1 = waiting, 2 = accepted, 3 = rejected
+     * @return - Friends with the status; read-only
+     */
+    public Collection<Friend> getFriends(int status) {
+
+        Map<String, Friend> friends = mFriendsByStatus.get(status);
+        return friends != null ? Collections.unmodifiableCollection(friends.values()) : Collections.emptyList();
+    }
+
+    /*
+        Private Support Methods
+     */
+    private void put(Friend friend) {
+
+        remove(friend.Id);
+        mFriends.put(friend.Id, friend);
+        mIndexedStatus.put(friend.Id, friend.Status);
+        Map<String, Friend> friends = mFriendsByStatus.get(friend.Status);
+        if (friends == null) {
+            friends = new HashMap<>();
+            mFriendsByStatus.put(friend.Status, friends);
+        }
+
+        friends.put(friend.Id, friend);
+    }
+
+    private void remove(String friendId) {
+
+        mFriends.remove(friendId);
+
+        // the status the friend was indexed under, in case the shared instance was changed since
+        Integer status = mIndexedStatus.remove(friendId);
+        if (status != null) {
+            Map<String, Friend> friends = mFriendsByStatus.get(status);
+            if (friends != null) {
+                friends.remove(friendId);
+            }
+        }
+    }
+
+    private void startListening() {
+
+        LogUtils.debug(TAG, "++startListening()");
+
+        // documents removed while detached never arrive as changes, so the first snapshot replaces the cached list
+        mReplaceOnNextSnapshot = true;
+        mRegistration = FirestoreCosts.listen(FirestoreCosts.FEATURE_FRIENDS, Refs.friends(mUserId), (snapshot, e) -> {
+
+            if (e != null || snapshot == null) {
+                LogUtils.error(TAG, "Friend query failed for %s: %s", mUserId, e != null ? e.getMessage() : "null snapshot");
+
+                // Firestore does not call a failed listener again; drop it so it can be attached anew
+                stopListening();
+                if (!mListeners.isEmpty()) {
+                    mHandler.postDelayed(mRetry, RETRY_MILLIS);
+                }
+
+                for (OnFriendsChangedListener listener : new ArrayList<>(mListeners)) {
+                    listener.onFriendsQueryFailed();
+                }
+
+                return;
+            }
+
+            sSnapshots.increment();
+            long arrived = System.nanoTime();
+            Set<String> changedIds = new HashSet<>();
+            Trace.beginSection("FriendsRepository.apply");
+            try {
+                if (mReplaceOnNextSnapshot) {
+                    changedIds.addAll(mFriends.keySet());
+                    mFriends.clear();
+                    mFriendsByStatus.clear();
+                    mIndexedStatus.clear();
+                    for (DocumentSnapshot document : snapshot.getDocuments()) {
+                        put(toFriend(document));
+                        changedIds.add(document.getId());
+                    }
+
+                    mReplaceOnNextSnapshot = false;
+                } else {
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        DocumentSnapshot document = change.getDocument();
+                        if (change.getType() == DocumentChange.Type.REMOVED) {
+                            remove(document.getId());
+                        } else {
+                            put(toFriend(document));
+                        }
+
+                        changedIds.add(document.getId());
+                    }
+                }
+            } finally {
+                Trace.endSection();
+            }
+
+            mLoaded = true;
+            mSnapshotTime = arrived;
+            try {
+                for (OnFriendsChangedListener listener : new ArrayList<>(mListeners)) {
+                    listener.onFriendsChanged(changedIds);
+                }
+            } finally {
+                mSnapshotTime = 0;
+            }
+        });
+    }
+
+    private void retry() {
+
+        LogUtils.debug(TAG, "++retry()");
+        if (mRegistration == null && !mListeners.isEmpty()) {
+            startListening();
+        }
+    }
+
+    private void stopListening() {
+
+        LogUtils.debug(TAG, "++stopListening()");
+        mHandler.removeCallbacks(mRetry);
+        mHandler.removeCallbacks(mStopListening);
+        if (mRegistration != null) {
+            mRegistration.remove();
+            mRegistration = null;
+        }
+    }
+
+    private static Friend toFriend(DocumentSnapshot document) {
+
+        return DocumentMaps.toFriend(document.getId(), document.getData());
+    }
+}
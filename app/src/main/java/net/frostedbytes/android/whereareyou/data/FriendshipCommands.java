@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.frostedbytes.android.whereareyou.data.Outbox.Operation;
+import net.frostedbytes.android.whereareyou.location.LocationService;
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
+import net.frostedbytes.android.whereareyou.models.Invite;
+import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.utils.EmailUtils;
+
+/**
+ * Friendship changes touch both sides of the relationship; every logical operation here is queued in the
+ * {@link Outbox} as one group, which is committed as a single batch so the two friend lists cannot disagree.
+ *
+ * TODO: replace with server side functions
+ */
+public class FriendshipCommands {
+
+    /**
+     * Largest number of writes Firestore accepts in one batch.
+     */
+    public static final int MAX_BATCH_WRITES = 500;
+
+    private final Outbox mOutbox;
+    private final User mUser;
+
+    public FriendshipCommands(Context context, User user) {
+
+        mOutbox = Outbox.getInstance(context);
+        mUser = user;
+    }
+
+    public void accept(Friend friend) {
+
+        acceptAll(Collections.singletonList(friend));
+    }
+
+    /**
+     * Accepts every pending request; both sides of each friendship are marked accepted.
+     *
+     * @param friends - Friends whose requests are being accepted
+     */
+    public void acceptAll(Collection<Friend> friends) {
+
+        List<Operation> operations = new ArrayList<>();
+        for (Friend friend : friends) {
+            if (!FriendStatus.canAnswer(friend.Status)) { // only requests sent to this user can be accepted here
+                continue;
+            }
+
+            if (operations.size() + 2 > MAX_BATCH_WRITES) {
+                mOutbox.enqueue(operations);
+                operations = new ArrayList<>();
+            }
+
+            // the friend belongs to FriendsRepository; the change arrives from there once the write lands
+            Friend accepted = new Friend(friend);
+            accepted.Status = FriendStatus.ACCEPTED;
+            accepted.UpdatedDate = System.currentTimeMillis();
+            operations.add(Operation.set(friendPath(mUser.Id, accepted.Id), DocumentMaps.fromFriend(accepted)));
+            Friend userAsFriend = new Friend(mUser);
+            userAsFriend.Status = FriendStatus.counterpart(accepted.Status);
+            operations.add(Operation.set(friendPath(friend.Id, mUser.Id), DocumentMaps.fromFriend(userAsFriend)));
+        }
+
+        if (!operations.isEmpty()) {
+            mOutbox.enqueue(operations);
+        }
+    }
+
+    public void delete(Friend friend) {
+
+        deleteAll(Collections.singletonList(friend));
+    }
+
+    /**
+     * Removes each friend (or request) from both friend lists; also used to decline requests. Accepted friends lose
+     * access to this user's location in the same batch as the last of the deletes.
+     *
+     * @param friends - Friends to remove
+     */
+    public void deleteAll(Collection<Friend> friends) {
+
+        Set<String> viewers = new HashSet<>();
+        FriendsRepository friendsRepository = FriendsRepository.getInstance(mUser.Id);
+        if (friendsRepository.isLoaded()) { // otherwise LocationService revokes access once the list arrives
+            for (Friend friend : friendsRepository.getFriends(FriendStatus.ACCEPTED)) {
+                viewers.add(friend.Id);
+            }
+        }
+
+        boolean revoked = false;
+        List<Operation> operations = new ArrayList<>();
+        for (Friend friend : friends) {
+            if (operations.size() + 2 > MAX_BATCH_WRITES) {
+                mOutbox.enqueue(operations);
+                operations = new ArrayList<>();
+            }
+
+            operations.add(Operation.delete(friendPath(mUser.Id, friend.Id)));
+            operations.add(Operation.delete(friendPath(friend.Id, mUser.Id)));
+            revoked |= viewers.remove(friend.Id);
+        }
+
+        if (revoked) {
+            if (operations.size() + 1 > MAX_BATCH_WRITES) {
+                mOutbox.enqueue(operations);
+                operations = new ArrayList<>();
+            }
+
+            operations.add(LocationService.shareWith(mUser.Id, viewers));
+        }
+
+        if (!operations.isEmpty()) {
+            mOutbox.enqueue(operations);
+        }
+    }
+
+    /**
+     * Sends a request to a registered user; waiting under this user and pending under the contact.
+     *
+     * @param contact - Registered user being asked to share
+     */
+    public void request(User contact) {
+
+        List<Operation> operations = new ArrayList<>();
+        Friend friend = new Friend(contact);
+        friend.Status = FriendStatus.WAITING;
+        operations.add(Operation.set(friendPath(mUser.Id, friend.Id), DocumentMaps.fromFriend(friend)));
+        Friend userAsFriend = new Friend(mUser);
+        userAsFriend.Status = FriendStatus.counterpart(friend.Status);
+        operations.add(Operation.set(friendPath(contact.Id, mUser.Id), DocumentMaps.fromFriend(userAsFriend)));
+        mOutbox.enqueue(operations);
+    }
+
+    /**
+     * Sends a request to someone who is not registered; a placeholder keyed on email is added to this user's list and
+     * the invite is indexed by email hash so it can be resolved when they sign in.
+     *
+     * @param name - Display name of the contact
+     * @param email - Email of the contact
+     */
+    public void invite(String name, String email) {
+
+        List<Operation> operations = new ArrayList<>();
+        Friend friend = new Friend();
+        friend.FullName = name;
+        friend.Email = email;
+        friend.Status = FriendStatus.WAITING;
+        operations.add(Operation.set(friendPath(mUser.Id, friend.getEmailAsKey()), DocumentMaps.fromFriend(friend)));
+        operations.add(Operation.set(invitePath(email, mUser.Id), DocumentMaps.fromInvite(new Invite(mUser))));
+        mOutbox.enqueue(operations);
+    }
+
+    /**
+     * Turns an invite addressed to this user into a regular request; the requester's placeholder is replaced, a
+     * pending request is added for this user and the invite is removed.
+     *
+     * @param invite - Invite sent to this user
+     */
+    public void resolve(Invite invite) {
+
+        List<Operation> operations = new ArrayList<>();
+        Friend userAsFriend = new Friend(mUser);
+        userAsFriend.Status = FriendStatus.WAITING;
+        operations.add(Operation.set(friendPath(invite.RequesterId, mUser.Id), DocumentMaps.fromFriend(userAsFriend)));
+        operations.add(Operation.delete(friendPath(invite.RequesterId, mUser.getEmailAsKey())));
+
+        Friend requester = new Friend();
+        requester.Id = invite.RequesterId;
+        requester.Email = invite.RequesterEmail;
+        requester.FullName = invite.RequesterFullName;
+        requester.Status = FriendStatus.counterpart(userAsFriend.Status);
+        operations.add(Operation.set(friendPath(mUser.Id, requester.Id), DocumentMaps.fromFriend(requester)));
+        operations.add(Operation.delete(invitePath(mUser.Email, invite.RequesterId)));
+        mOutbox.enqueue(operations);
+    }
+
+    private static String friendPath(String userId, String friendId) {
+
+        return Refs.friend(userId, friendId).getPath();
+    }
+
+    private static String invitePath(String email, String requesterId) {
+
+        return Refs.requester(EmailUtils.hash(email), requesterId).getPath();
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.frostedbytes.android.whereareyou.location.ProximityEngine;
+import net.frostedbytes.android.whereareyou.models.UserLocation;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Process-wide view of the locations shared with the signed in user. One snapshot listener on Locations is shared by
+ * the map and the friend list, and it keeps the {@link ProximityEngine} current for as long as either is on screen.
+ * Like {@link FriendsRepository} it lingers for a short while after the last listener leaves. Must be used from the
+ * main thread.
+ */
+public class LocationsRepository {
+
+    private static final String TAG = BASE_TAG + LocationsRepository.class.getSimpleName();
+
+    /**
+     * How long the snapshot listener is kept after the last listener is removed; in milliseconds.
+     */
+    private static final long LINGER_MILLIS = 5000;
+
+    /**
+     * How long to wait before re-attaching a snapshot listener that Firestore ended with an error; in milliseconds.
+     */
+    private static final long RETRY_MILLIS = 30000;
+
+    public interface OnLocationsChangedListener {
+
+        /**
+         * @param changedIds - Identifiers of friends whose location was added, modified or removed since the last call
+         */
+        void onLocationsChanged(Collection<String> changedIds);
+    }
+
+    private static LocationsRepository sInstance;
+
+    private final Handler mHandler;
+    private final List<OnLocationsChangedListener> mListeners;
+    private final Map<String, UserLocation> mLocations;
+    private final String mUserId;
+
+    private ListenerRegistration mRegistration;
+    private boolean mReplaceOnNextSnapshot;
+
+    private final Runnable mRetry = this::retry;
+    private final Runnable mStopListening = this::stopListening;
+
+    /**
+     * @param userId - Identifier of the signed in user; a different user replaces the previous repository and clears
+     *  the proximity order
+     * @return - Repository for the locations shared with the user
+     */
+    public static synchronized LocationsRepository getInstance(String userId) {
+
+        if (sInstance == null || !sInstance.mUserId.equals(userId)) {
+            if (sInstance != null) {
+                sInstance.stopListening();
+            }
+
+            ProximityEngine.getInstance().clear();
+            sInstance = new LocationsRepository(userId);
+        }
+
+        return sInstance;
+    }
+
+    private LocationsRepository(String userId) {
+
+        mHandler = new Handler(Looper.getMainLooper());
+        mListeners = new ArrayList<>();
+        mLocations = new HashMap<>();
+        mUserId = userId;
+    }
+
+    /**
+     * Registers the listener; known locations are reported to it straight away.
+     *
+     * @param listener - Listener to notify of changes
+     */
+    public void addListener(OnLocationsChangedListener listener) {
+
+        LogUtils.debug(TAG, "++addListener(OnLocationsChangedListener)");
+        mHandler.removeCallbacks(mStopListening);
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+
+        if (mRegistration == null) {
+            startListening();
+        }
+
+        if (!mLocations.isEmpty()) {
+            listener.onLocationsChanged(new ArrayList<>(mLocations.keySet()));
+        }
+    }
+
+    public void removeListener(OnLocationsChangedListener listener) {
+
+        LogUtils.debug(TAG, "++removeListener(OnLocationsChangedListener)");
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            mHandler.postDelayed(mStopListening, LINGER_MILLIS);
+        }
+    }
+
+    /**
+     * @param friendId - Identifier of the friend
+     * @return - Last published position of the friend, or null if they have not shared one with the user
+     */
+    public UserLocation getLocation(String friendId) {
+        return mLocations.get(friendId);
+    }
+
+    /*
+        Private Support Methods
+     */
+    private void startListening() {
+
+        LogUtils.debug(TAG, "++startListening()");
+
+        // documents removed while detached never arrive as changes, so the first snapshot replaces the cached locations
+        mReplaceOnNextSnapshot = true;
+        mRegistration = FirestoreCosts.listen(
+            FirestoreCosts.FEATURE_MAP,
+            Refs.locations().whereArrayContains("Viewers", mUserId),
+            (snapshot, e) -> {
+
+                if (e != null || snapshot == null) {
+                    LogUtils.error(TAG, "Location query failed for %s: %s", mUserId, e != null ? e.getMessage() : "null snapshot");
+
+                    // Firestore does not call a failed listener again; drop it so it can be attached anew
+                    stopListening();
+                    if (!mListeners.isEmpty()) {
+                        mHandler.postDelayed(mRetry, RETRY_MILLIS);
+                    }
+
+                    return;
+                }
+
+                Set<String> changedIds = new HashSet<>();
+                if (mReplaceOnNextSnapshot) {
+                    changedIds.addAll(mLocations.keySet());
+                    mLocations.clear();
+                    for (DocumentSnapshot document : snapshot.getDocuments()) {
+                        put(document);
+                        changedIds.add(document.getId());
+                    }
+
+                    mReplaceOnNextSnapshot = false;
+                } else {
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        DocumentSnapshot document = change.getDocument();
+                        if (change.getType() == DocumentChange.Type.REMOVED) {
+                            mLocations.remove(document.getId());
+                        } else {
+                            put(document);
+                        }
+
+                        changedIds.add(document.getId());
+                    }
+                }
+
+                // one batch per snapshot, so the friend list re-sorts once rather than once per friend
+                ProximityEngine proximityEngine = ProximityEngine.getInstance();
+                proximityEngine.beginUpdate();
+                try {
+                    for (String friendId : changedIds) {
+                        UserLocation location = mLocations.get(friendId);
+                        if (location != null) {
+                            proximityEngine.update(friendId, location.Latitude, location.Longitude);
+                        } else {
+                            proximityEngine.remove(friendId);
+                        }
+                    }
+                } finally {
+                    proximityEngine.endUpdate();
+                }
+
+                for (OnLocationsChangedListener listener : new ArrayList<>(mListeners)) {
+                    listener.onLocationsChanged(changedIds);
+                }
+            });
+    }
+
+    private void retry() {
+
+        LogUtils.debug(TAG, "++retry()");
+        if (mRegistration == null && !mListeners.isEmpty()) {
+            startListening();
+        }
+    }
+
+    private void stopListening() {
+
+        LogUtils.debug(TAG, "++stopListening()");
+        mHandler.removeCallbacks(mRetry);
+        mHandler.removeCallbacks(mStopListening);
+        if (mRegistration != null) {
+            mRegistration.remove();
+            mRegistration = null;
+        }
+    }
+
+    private void put(DocumentSnapshot document) {
+
+        // a viewers-only document, written before the friend's first fix, carries no position
+        UserLocation location = DocumentMaps.toUserLocation(document.getData());
+        if (location.TimeStamp > 0) {
+            mLocations.put(document.getId(), location);
+        } else {
+            mLocations.remove(document.getId());
+        }
+    }
+}
@@ -0,0 +1,616 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.frostedbytes.android.whereareyou.metrics.Counter;
+import net.frostedbytes.android.whereareyou.metrics.LatencyHistogram;
+import net.frostedbytes.android.whereareyou.metrics.Metrics;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Durable queue of Firestore writes. Writes are kept in a local database keyed on document path, so a newer write to
+ * the same document replaces the older one in place, keeping its position and group; the queue is flushed in batched commits whenever the device is online,
+ * backing off exponentially after failures. Nothing is handed to Firestore while offline, so its own pending-write
+ * queue never accumulates intermediate values.
+ *
+ * Writes Firestore rejects outright (e.g. PERMISSION_DENIED) are never retried: the failing group is found by
+ * committing groups one at a time, then dropped so it cannot hold up the writes queued behind it. The queue belongs to
+ * the signed in user and is cleared on sign out. Database work and commits run on a single background thread.
+ */
+public class Outbox {
+
+    private static final String TAG = BASE_TAG + Outbox.class.getSimpleName();
+
+    private static final long INITIAL_BACKOFF = 2 * 1000;
+    private static final long MAX_BACKOFF = 15 * 60 * 1000;
+
+    private static final String DATABASE_NAME = "outbox.db";
+    private static final int DATABASE_VERSION = 2;
+    private static final String TABLE_NAME = "Outbox";
+    private static final String COLUMN_DATA = "Data";
+    private static final String COLUMN_FIELDS = "Fields";
+    private static final String COLUMN_GROUP = "GroupId";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_OPERATION = "Operation";
+    private static final String COLUMN_PATH = "Path";
+    private static final String COLUMN_VERSION = "Version";
+
+    private static final int OPERATION_SET = 0;
+    private static final int OPERATION_MERGE = 1;
+    private static final int OPERATION_DELETE = 2;
+
+    /**
+     * Failures that the same write would meet again; everything else is retried with backoff.
+     */
+    private static final Set<FirebaseFirestoreException.Code> PERMANENT_FAILURES = EnumSet.of(
+        FirebaseFirestoreException.Code.ALREADY_EXISTS,
+        FirebaseFirestoreException.Code.FAILED_PRECONDITION,
+        FirebaseFirestoreException.Code.INVALID_ARGUMENT,
+        FirebaseFirestoreException.Code.NOT_FOUND,
+        FirebaseFirestoreException.Code.OUT_OF_RANGE,
+        FirebaseFirestoreException.Code.PERMISSION_DENIED,
+        FirebaseFirestoreException.Code.UNIMPLEMENTED);
+
+    private static final LatencyHistogram sCommitLatency = Metrics.histogram("outbox.commit");
+    private static final Counter sCommits = Metrics.counter("outbox.commits");
+    private static final Counter sDropped = Metrics.counter("outbox.dropped");
+    private static final Counter sFailures = Metrics.counter("outbox.failures");
+
+    private static Outbox sInstance;
+
+    /**
+     * A single document write; operations enqueued together are committed in the same batch.
+     */
+    public static class Operation {
+
+        final Map<String, Object> Data;
+        final String[] Fields;
+        final int Kind;
+        final String Path;
+
+        LatencyHistogram Latency;
+        long Origin;
+
+        private Operation(int kind, String path, Map<String, Object> data, String[] fields) {
+
+            Data = data;
+            Fields = fields;
+            Kind = kind;
+            Path = path;
+        }
+
+        public static Operation set(String path, Map<String, Object> data) {
+            return new Operation(OPERATION_SET, path, data, null);
+        }
+
+        public static Operation merge(String path, Map<String, Object> data, String... fields) {
+            return new Operation(OPERATION_MERGE, path, data, fields);
+        }
+
+        public static Operation delete(String path) {
+            return new Operation(OPERATION_DELETE, path, null, null);
+        }
+
+        /**
+         * Times this write from an earlier event until Firestore acknowledges it. Only the latest write to a document
+         * is timed; a write replaced while queued is never acknowledged.
+         *
+         * @param latency - Histogram to record the time in
+         * @param origin - Time of the event; in SystemClock.elapsedRealtimeNanos() units
+         * @return - This operation
+         */
+        public Operation withLatency(LatencyHistogram latency, long origin) {
+
+            Latency = latency;
+            Origin = origin;
+            return this;
+        }
+    }
+
+    private static class Row {
+
+        String GroupId;
+        long Id;
+        long Version;
+        Operation Write;
+    }
+
+    private static class Timing {
+
+        LatencyHistogram Latency;
+        long Origin;
+        long RowId;
+        long Version;
+    }
+
+    private final ConnectivityManager mConnectivityManager;
+    private final OutboxDatabase mDatabase;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler;
+    private final Map<String, Timing> mTimings; // only used on the executor thread
+
+    // only used on the executor thread
+    private long mBackoff;
+    private boolean mIsFlushing;
+    private boolean mIsolateGroups;
+
+    /**
+     * Posted to the main looper for delayed flushes; the flush itself runs on the executor.
+     */
+    private final Runnable mFlushRunnable = () -> mExecutor.execute(this::flush);
+
+    public static synchronized Outbox getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new Outbox(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private Outbox(Context context) {
+
+        mDatabase = new OutboxDatabase(context);
+        mExecutor = Executors.newSingleThreadExecutor();
+        mHandler = new Handler(Looper.getMainLooper());
+        mTimings = new HashMap<>();
+        mBackoff = INITIAL_BACKOFF;
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (mConnectivityManager != null) {
+            mConnectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+
+                @Override
+                public void onAvailable(Network network) {
+
+                    LogUtils.debug(TAG, "Network available; flushing outbox.");
+                    mExecutor.execute(() -> {
+                        mBackoff = INITIAL_BACKOFF;
+                        mHandler.removeCallbacks(mFlushRunnable);
+                        flush();
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops every queued write; called when the user signs out, so nothing is committed under the next user's account.
+     */
+    public void clear() {
+
+        LogUtils.debug(TAG, "++clear()");
+        mHandler.removeCallbacks(mFlushRunnable);
+        mExecutor.execute(() -> {
+            mDatabase.getWritableDatabase().delete(TABLE_NAME, null, null);
+            mTimings.clear();
+            mBackoff = INITIAL_BACKOFF;
+            mIsolateGroups = false;
+        });
+    }
+
+    public void enqueue(Operation operation) {
+
+        enqueue(Collections.singletonList(operation));
+    }
+
+    /**
+     * Stores the operations and schedules a flush. A queued write to the same document is overwritten where it stands,
+     * so it stays in its own group and keeps its place in the queue. Returns before the operations are stored; the
+     * order of calls is kept.
+     *
+     * @param operations - Writes that must be committed together
+     */
+    public void enqueue(List<Operation> operations) {
+
+        String groupId = UUID.randomUUID().toString();
+        List<ContentValues> rows = new ArrayList<>();
+        for (Operation operation : operations) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_OPERATION, operation.Kind);
+            if (operation.Data != null) {
+                values.put(COLUMN_DATA, new JSONObject(operation.Data).toString());
+            } else {
+                values.putNull(COLUMN_DATA);
+            }
+
+            if (operation.Fields != null) {
+                values.put(COLUMN_FIELDS, new JSONArray(Arrays.asList(operation.Fields)).toString());
+            } else {
+                values.putNull(COLUMN_FIELDS);
+            }
+
+            rows.add(values);
+        }
+
+        mExecutor.execute(() -> {
+
+            SQLiteDatabase database = mDatabase.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                for (int index = 0; index < operations.size(); index++) {
+                    Operation operation = operations.get(index);
+                    ContentValues values = rows.get(index);
+                    long rowId = -1;
+                    long version = 0;
+                    try (Cursor cursor = database.query(
+                        TABLE_NAME,
+                        new String[]{COLUMN_ID, COLUMN_VERSION},
+                        COLUMN_PATH + " = ?",
+                        new String[]{operation.Path},
+                        null,
+                        null,
+                        null)) {
+                        if (cursor.moveToFirst()) {
+                            rowId = cursor.getLong(0);
+                            version = cursor.getLong(1) + 1;
+                        }
+                    }
+
+                    // the version tells a flush in flight that the row it sent has since been overwritten
+                    values.put(COLUMN_VERSION, version);
+                    if (rowId != -1) {
+                        database.update(TABLE_NAME, values, COLUMN_ID + " = ?", new String[]{String.valueOf(rowId)});
+                    } else {
+                        values.put(COLUMN_PATH, operation.Path);
+                        values.put(COLUMN_GROUP, groupId);
+                        rowId = database.insert(TABLE_NAME, null, values);
+                    }
+
+                    if (operation.Latency != null && rowId != -1) {
+                        Timing timing = new Timing();
+                        timing.Latency = operation.Latency;
+                        timing.Origin = operation.Origin;
+                        timing.RowId = rowId;
+                        timing.Version = version;
+                        mTimings.put(operation.Path, timing);
+                    }
+                }
+
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            flush();
+        });
+    }
+
+    private void flush() {
+
+        if (mIsFlushing) {
+            return;
+        }
+
+        if (!isConnected()) {
+            LogUtils.debug(TAG, "Offline; leaving writes in outbox.");
+            return;
+        }
+
+        if (FirebaseAuth.getInstance().getCurrentUser() == null) {
+            LogUtils.debug(TAG, "Signed out; leaving writes in outbox.");
+            return;
+        }
+
+        List<Row> rows = readRows();
+        if (rows.isEmpty()) {
+            mIsolateGroups = false;
+            return;
+        }
+
+        if (mIsolateGroups) { // looking for the group Firestore rejects; commit the oldest one alone
+            String groupId = rows.get(0).GroupId;
+            int end = 1;
+            while (end < rows.size() && rows.get(end).GroupId.equals(groupId)) {
+                end++;
+            }
+
+            rows = new ArrayList<>(rows.subList(0, end));
+        }
+
+        LogUtils.debug(TAG, "Flushing %d write(s).", rows.size());
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        WriteBatch batch = firestore.batch();
+        Trace.beginSection("Outbox.flush");
+        try {
+            for (Row row : rows) {
+                Operation operation = row.Write;
+                switch (operation.Kind) {
+                    case OPERATION_SET:
+                        batch.set(firestore.document(operation.Path), operation.Data);
+                        break;
+                    case OPERATION_MERGE:
+                        batch.set(firestore.document(operation.Path), operation.Data, SetOptions.mergeFields(operation.Fields));
+                        break;
+                    case OPERATION_DELETE:
+                        batch.delete(firestore.document(operation.Path));
+                        break;
+                }
+            }
+        } finally {
+            Trace.endSection();
+        }
+
+        mIsFlushing = true;
+        long started = System.nanoTime();
+        List<Row> committed = rows;
+        batch.commit().addOnCompleteListener(mExecutor, task -> {
+
+            mIsFlushing = false;
+            sCommitLatency.recordNanos(System.nanoTime() - started);
+            if (task.isSuccessful()) {
+                sCommits.increment();
+                deleteRows(committed);
+                for (Row row : committed) {
+                    FirestoreCosts.wrote(row.Write.Path);
+                }
+
+                recordTimings(committed);
+                mBackoff = INITIAL_BACKOFF;
+                flush();
+            } else if (isPermanent(task.getException())) {
+                sFailures.increment();
+                if (mIsolateGroups || committed.get(0).GroupId.equals(committed.get(committed.size() - 1).GroupId)) {
+                    LogUtils.error(
+                        TAG,
+                        "Dropping %d rejected write(s) to %s - %s",
+                        committed.size(),
+                        committed.get(0).Write.Path,
+                        task.getException().getMessage());
+                    sDropped.add(committed.size());
+                    deleteRows(committed);
+                    mIsolateGroups = false;
+                } else {
+                    LogUtils.warn(TAG, "Outbox batch rejected; committing groups one at a time.");
+                    mIsolateGroups = true;
+                }
+
+                flush();
+            } else {
+                sFailures.increment();
+                LogUtils.warn(
+                    TAG,
+                    "Outbox flush failed; retrying in %d ms - %s",
+                    mBackoff,
+                    task.getException() != null ? task.getException().getMessage() : "");
+                mHandler.removeCallbacks(mFlushRunnable);
+                mHandler.postDelayed(mFlushRunnable, mBackoff);
+                mBackoff = Math.min(mBackoff * 2, MAX_BACKOFF);
+            }
+        });
+    }
+
+    private static boolean isPermanent(Exception exception) {
+
+        return exception instanceof FirebaseFirestoreException &&
+            PERMANENT_FAILURES.contains(((FirebaseFirestoreException) exception).getCode());
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isConnected() {
+
+        if (mConnectivityManager == null) {
+            return true;
+        }
+
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * Reads the oldest writes that fit in one batch; a group is never split across batches unless it alone is larger
+     * than a batch.
+     */
+    private List<Row> readRows() {
+
+        List<Row> rows = new ArrayList<>();
+        List<Row> unreadable = new ArrayList<>();
+        SQLiteDatabase database = mDatabase.getReadableDatabase();
+        try (Cursor cursor = database.query(
+            TABLE_NAME,
+            null,
+            null,
+            null,
+            null,
+            null,
+            COLUMN_ID,
+            String.valueOf(FriendshipCommands.MAX_BATCH_WRITES + 1))) {
+            while (cursor.moveToNext()) {
+                Row row = new Row();
+                row.Id = cursor.getLong(cursor.getColumnIndex(COLUMN_ID));
+                row.GroupId = cursor.getString(cursor.getColumnIndex(COLUMN_GROUP));
+                row.Version = cursor.getLong(cursor.getColumnIndex(COLUMN_VERSION));
+                String data = cursor.getString(cursor.getColumnIndex(COLUMN_DATA));
+                String fields = cursor.getString(cursor.getColumnIndex(COLUMN_FIELDS));
+                try {
+                    row.Write = new Operation(
+                        cursor.getInt(cursor.getColumnIndex(COLUMN_OPERATION)),
+                        cursor.getString(cursor.getColumnIndex(COLUMN_PATH)),
+                        data != null ? toMap(new JSONObject(data)) : null,
+                        fields != null ? toStrings(new JSONArray(fields)) : null);
+                    rows.add(row);
+                } catch (JSONException e) {
+                    LogUtils.error(TAG, "Dropping unreadable outbox write %d - %s", row.Id, e.getMessage());
+                    unreadable.add(row);
+                }
+            }
+        }
+
+        deleteRows(unreadable);
+        if (rows.size() > FriendshipCommands.MAX_BATCH_WRITES) {
+            String splitGroup = rows.get(FriendshipCommands.MAX_BATCH_WRITES).GroupId;
+            rows.remove(FriendshipCommands.MAX_BATCH_WRITES);
+            List<Row> trimmed = new ArrayList<>(rows);
+            while (!trimmed.isEmpty() && trimmed.get(trimmed.size() - 1).GroupId.equals(splitGroup)) {
+                trimmed.remove(trimmed.size() - 1);
+            }
+
+            if (!trimmed.isEmpty()) {
+                rows = trimmed;
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Removes flushed writes; rows overwritten by a newer write while the batch was in flight have a new version and
+     * stay.
+     */
+    private void deleteRows(List<Row> rows) {
+
+        SQLiteDatabase database = mDatabase.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (Row row : rows) {
+                database.delete(
+                    TABLE_NAME,
+                    COLUMN_ID + " = ? AND " + COLUMN_VERSION + " = ?",
+                    new String[]{String.valueOf(row.Id), String.valueOf(row.Version)});
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Records the time from each acknowledged write's origin event; a timing belonging to a newer write to the same
+     * document waits for that write.
+     */
+    private void recordTimings(List<Row> rows) {
+
+        if (mTimings.isEmpty()) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtimeNanos();
+        for (Row row : rows) {
+            Timing timing = mTimings.get(row.Write.Path);
+            if (timing != null && timing.RowId == row.Id && timing.Version == row.Version) {
+                timing.Latency.recordNanos(now - timing.Origin);
+                mTimings.remove(row.Write.Path);
+            }
+        }
+    }
+
+    private static Map<String, Object> toMap(JSONObject json) throws JSONException {
+
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, toValue(json.get(key)));
+        }
+
+        return map;
+    }
+
+    private static String[] toStrings(JSONArray json) throws JSONException {
+
+        String[] strings = new String[json.length()];
+        for (int index = 0; index < json.length(); index++) {
+            strings[index] = json.getString(index);
+        }
+
+        return strings;
+    }
+
+    private static Object toValue(Object value) throws JSONException {
+
+        if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>();
+            for (int index = 0; index < array.length(); index++) {
+                list.add(toValue(array.get(index)));
+            }
+
+            return list;
+        } else if (value == JSONObject.NULL) {
+            return null;
+        }
+
+        return value;
+    }
+
+    private static class OutboxDatabase extends SQLiteOpenHelper {
+
+        OutboxDatabase(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase database) {
+
+            database.execSQL("CREATE TABLE " + TABLE_NAME + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_PATH + " TEXT NOT NULL UNIQUE, " +
+                COLUMN_OPERATION + " INTEGER NOT NULL, " +
+                COLUMN_DATA + " TEXT, " +
+                COLUMN_FIELDS + " TEXT, " +
+                COLUMN_GROUP + " TEXT NOT NULL, " +
+                COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+
+            if (oldVersion < 2) { // keeps the queued writes
+                database.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0");
+            }
+        }
+    }
+}
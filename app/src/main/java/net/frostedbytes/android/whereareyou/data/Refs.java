@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.Invite;
+import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.models.UserLocation;
+
+/**
+ * Hands out the Firestore references used by the app. References are built from their parent once and cached, so
+ * callers on hot paths never build path strings.
+ */
+public class Refs {
+
+    private static CollectionReference sDirectory;
+    private static CollectionReference sInvites;
+    private static CollectionReference sLocations;
+    private static CollectionReference sUsers;
+
+    private static final Map<String, CollectionReference> sFriends = new HashMap<>();
+    private static final Map<String, Map<String, DocumentReference>> sFriend = new HashMap<>();
+    private static final Map<String, DocumentReference> sLocation = new HashMap<>();
+    private static final Map<String, CollectionReference> sRequesters = new HashMap<>();
+    private static final Map<String, DocumentReference> sUser = new HashMap<>();
+
+    /**
+     * @return - Directory collection; documents are keyed on the hash of a user's email
+     */
+    public static synchronized CollectionReference directory() {
+
+        if (sDirectory == null) {
+            sDirectory = FirebaseFirestore.getInstance().collection(User.DIRECTORY_ROOT);
+        }
+
+        return sDirectory;
+    }
+
+    /**
+     * @param emailHash - Hash of the email address; see EmailUtils.hash()
+     * @return - Directory entry for the email address; not cached, as each is read once per lookup
+     */
+    public static DocumentReference directoryEntry(String emailHash) {
+
+        return directory().document(emailHash);
+    }
+
+    /**
+     * @param userId - Owner of the friend list
+     * @return - Users/{userId}/Friends
+     */
+    public static synchronized CollectionReference friends(String userId) {
+
+        CollectionReference friends = sFriends.get(userId);
+        if (friends == null) {
+            friends = user(userId).collection(Friend.FRIENDS_ROOT);
+            sFriends.put(userId, friends);
+        }
+
+        return friends;
+    }
+
+    /**
+     * @param userId - Owner of the friend list
+     * @param friendId - Identifier of the friend; for invited contacts this is the email key
+     * @return - Users/{userId}/Friends/{friendId}
+     */
+    public static synchronized DocumentReference friend(String userId, String friendId) {
+
+        Map<String, DocumentReference> friendsOfUser = sFriend.get(userId);
+        if (friendsOfUser == null) {
+            friendsOfUser = new HashMap<>();
+            sFriend.put(userId, friendsOfUser);
+        }
+
+        DocumentReference friend = friendsOfUser.get(friendId);
+        if (friend == null) {
+            friend = friends(userId).document(friendId);
+            friendsOfUser.put(friendId, friend);
+        }
+
+        return friend;
+    }
+
+    /**
+     * @return - Locations collection
+     */
+    public static synchronized CollectionReference locations() {
+
+        if (sLocations == null) {
+            sLocations = FirebaseFirestore.getInstance().collection(UserLocation.LOCATIONS_ROOT);
+        }
+
+        return sLocations;
+    }
+
+    /**
+     * @param userId - Owner of the location
+     * @return - Locations/{userId}
+     */
+    public static synchronized DocumentReference location(String userId) {
+
+        DocumentReference location = sLocation.get(userId);
+        if (location == null) {
+            location = locations().document(userId);
+            sLocation.put(userId, location);
+        }
+
+        return location;
+    }
+
+    /**
+     * @param emailHash - Hash of the invited email address; see EmailUtils.hash()
+     * @return - Invites/{emailHash}/Requesters
+     */
+    public static synchronized CollectionReference requesters(String emailHash) {
+
+        CollectionReference requesters = sRequesters.get(emailHash);
+        if (requesters == null) {
+            if (sInvites == null) {
+                sInvites = FirebaseFirestore.getInstance().collection(Invite.INVITES_ROOT);
+            }
+
+            requesters = sInvites.document(emailHash).collection(Invite.REQUESTERS_ROOT);
+            sRequesters.put(emailHash, requesters);
+        }
+
+        return requesters;
+    }
+
+    /**
+     * @param emailHash - Hash of the invited email address; see EmailUtils.hash()
+     * @param requesterId - Identifier of the user that sent the invite
+     * @return - Invites/{emailHash}/Requesters/{requesterId}
+     */
+    public static DocumentReference requester(String emailHash, String requesterId) {
+
+        return requesters(emailHash).document(requesterId);
+    }
+
+    /**
+     * @return - Users collection
+     */
+    public static synchronized CollectionReference users() {
+
+        if (sUsers == null) {
+            sUsers = FirebaseFirestore.getInstance().collection(User.USERS_ROOT);
+        }
+
+        return sUsers;
+    }
+
+    /**
+     * @param userId - Identifier of the user
+     * @return - Users/{userId}
+     */
+    public static synchronized DocumentReference user(String userId) {
+
+        DocumentReference user = sUser.get(userId);
+        if (user == null) {
+            user = users().document(userId);
+            sUser.put(userId, user);
+        }
+
+        return user;
+    }
+}
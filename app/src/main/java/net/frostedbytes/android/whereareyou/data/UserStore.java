@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frostedbytes.android.whereareyou.models.User;
+
+/**
+ * In-memory home of the signed in user for the life of the process. Screens are handed the user's id in their
+ * arguments and look the user up here, so fragment transactions and state saves never copy the model.
+ */
+public class UserStore {
+
+    private static final Map<String, User> sUsers = new HashMap<>();
+
+    /**
+     * @param userId - Identifier of the user
+     * @return - User with the identifier, or null if it has not been put in the store
+     */
+    public static synchronized User get(String userId) {
+        return sUsers.get(userId);
+    }
+
+    /**
+     * Adds the user, replacing any user with the same identifier.
+     *
+     * @param user - User to keep
+     */
+    public static synchronized void put(User user) {
+        sUsers.put(user.Id, user);
+    }
+
+    /**
+     * Forgets every user; called when signing out.
+     */
+    public static synchronized void clear() {
+        sUsers.clear();
+    }
+}
@@ -18,10 +18,9 @@ package net.frostedbytes.android.whereareyou.fragments;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.provider.ContactsContract;
+import android.os.Trace;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.support.v7.widget.LinearLayoutManager;
@@ -35,12 +34,17 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.RequestManager;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import net.frostedbytes.android.whereareyou.R;
-import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.data.ContactMatcher;
+import net.frostedbytes.android.whereareyou.data.ContactsIndex;
+import net.frostedbytes.android.whereareyou.metrics.LatencyHistogram;
+import net.frostedbytes.android.whereareyou.metrics.Metrics;
+import net.frostedbytes.android.whereareyou.models.Contact;
 import net.frostedbytes.android.whereareyou.utils.LogUtils;
 
 import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
@@ -51,14 +55,16 @@ public class ContactsFragment extends Fragment {
 
     public interface OnContactListListener {
 
-        void onAddSharingContact(String contactName, String contactEmail);
+        void onAddSharingContact(Contact contact);
     }
 
     private OnContactListListener mCallback;
 
     private RecyclerView mRecyclerView;
 
-    private Map<String, User> mContactList;
+    private ContactAdapter mContactAdapter;
+    private List<Contact> mContactList;
+    private ContactMatcher mContactMatcher;
 
     public static ContactsFragment newInstance() {
 
@@ -88,8 +94,14 @@ public class ContactsFragment extends Fragment {
 
         View view = inflater.inflate(R.layout.fragment_friend_list, container, false);
         mRecyclerView = view.findViewById(R.id.contacts_list_view);
+        mContactList = new ArrayList<>();
+        mContactAdapter = new ContactAdapter(Glide.with(this), mContactList);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mRecyclerView.setAdapter(mContactAdapter);
         if (getActivity() != null) {
-            new FetchContactsTask(this).execute(getActivity().getContentResolver());
+            ContactsIndex contactsIndex = ContactsIndex.getInstance(getActivity());
+            mContactMatcher = new ContactMatcher(contactsIndex);
+            new FetchContactsTask(this, contactsIndex).execute(getActivity().getContentResolver());
         } else {
             LogUtils.error(TAG, "Unable to get content resolver; cannot gather contacts.");
         }
@@ -97,20 +109,52 @@ public class ContactsFragment extends Fragment {
         return view;
     }
 
-    private void updateUI() {
+    private void onContactsLoaded(List<Contact> page) {
 
-        LogUtils.debug(TAG, "++updateUI()");
-        ContactAdapter contactAdapter = new ContactAdapter(Glide.with(this), new ArrayList<>(mContactList.values()));
-        mRecyclerView.setAdapter(contactAdapter);
-        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        LogUtils.debug(TAG, "++onContactsLoaded(%d)", page.size());
+        int start = mContactList.size();
+        mContactList.addAll(page);
+        mContactAdapter.notifyItemRangeInserted(start, page.size());
+    }
+
+    private void onContactsMatched(List<Contact> matched) {
+
+        LogUtils.debug(TAG, "++onContactsMatched(%d)", matched.size());
+        if (!isAdded()) {
+            return;
+        }
+
+        Map<String, String> userIds = new HashMap<>();
+        for (Contact contact : matched) {
+            if (contact.UserId != null) {
+                userIds.put(contact.ContactId + contact.Email, contact.UserId);
+            }
+        }
+
+        for (int position = 0; position < mContactList.size() && !userIds.isEmpty(); position++) {
+            Contact contact = mContactList.get(position);
+            String userId = userIds.remove(contact.ContactId + contact.Email);
+            if (userId != null) {
+                contact.UserId = userId;
+                mContactAdapter.notifyItemChanged(position);
+            }
+        }
+    }
+
+    private void onContactsChanged(List<Contact> contacts) {
+
+        LogUtils.debug(TAG, "++onContactsChanged(%d)", contacts.size());
+        mContactList.clear();
+        mContactList.addAll(contacts);
+        mContactAdapter.notifyDataSetChanged();
     }
 
     class ContactAdapter extends RecyclerView.Adapter<ContactHolder> {
 
         private final RequestManager mGlide;
-        private List<User> mContacts;
+        private final List<Contact> mContacts;
 
-        ContactAdapter(RequestManager glide, List<User> contacts) {
+        ContactAdapter(RequestManager glide, List<Contact> contacts) {
 
             mGlide = glide;
             mContacts = contacts;
@@ -127,7 +171,7 @@ public class ContactsFragment extends Fragment {
         @Override
         public void onBindViewHolder(@NonNull ContactHolder holder, int position) {
 
-            User contact = mContacts.get(position);
+            Contact contact = mContacts.get(position);
             holder.bind(contact);
         }
 
@@ -140,10 +184,11 @@ public class ContactsFragment extends Fragment {
     class ContactHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         private final RequestManager mGlide;
+        private final ImageView mRegisteredImageView;
         private final TextView mUserTextView;
         private final ImageView mUserImageView;
 
-        private User mContact;
+        private Contact mContact;
 
         ContactHolder(LayoutInflater inflater, ViewGroup parent, RequestManager glide) {
             super(inflater.inflate(R.layout.contacts_item, parent, false));
@@ -153,9 +198,10 @@ public class ContactsFragment extends Fragment {
 
             mUserTextView = itemView.findViewById(R.id.contacts_text_user_value);
             mUserImageView = itemView.findViewById(R.id.contacts_image_user);
+            mRegisteredImageView = itemView.findViewById(R.id.contacts_image_registered);
         }
 
-        void bind(User contact) {
+        void bind(Contact contact) {
 
             mContact = contact;
             if (contact.PhotoUri == null || contact.PhotoUri.isEmpty()) {
@@ -164,83 +210,114 @@ public class ContactsFragment extends Fragment {
                 mGlide.load(contact.PhotoUri).into(mUserImageView);
             }
 
-            mUserTextView.setText(String.format(Locale.ENGLISH, getString(R.string.contact_format), mContact.FullName, mContact.Email));
+            mUserTextView.setText(String.format(Locale.ENGLISH, getString(R.string.contact_format), mContact.DisplayName, mContact.Email));
+            mRegisteredImageView.setVisibility(contact.UserId != null ? View.VISIBLE : View.GONE);
         }
 
         @Override
         public void onClick(View view) {
 
-            mCallback.onAddSharingContact(mContact.FullName, mContact.Email);
+            mCallback.onAddSharingContact(mContact);
         }
     }
 
-    private static class FetchContactsTask extends AsyncTask<Object, Void, Map<String, User>> {
+    /**
+     * Renders the contacts index straight away, then brings it up to date with the address book. The first run has no
+     * index to show, so the address book is read in full and streamed to the fragment a page at a time. Contacts whose
+     * directory lookup is missing or stale are handed to the matcher once the list is current.
+     */
+    private static class FetchContactsTask extends AsyncTask<ContentResolver, List<Contact>, List<Contact>> {
 
+        private static final int PAGE_SIZE = 100;
+
+        private static final LatencyHistogram sFirstPage = Metrics.histogram("contacts.first_page");
+        private static final LatencyHistogram sLoad = Metrics.histogram("contacts.load");
+
+        private final ContactsIndex mContactsIndex;
+        private boolean mShownFirstPage;
+        private long mStarted;
+        private List<Contact> mUnmatched;
         private WeakReference<ContactsFragment> mFragmentWeakReference;
 
-        FetchContactsTask(ContactsFragment context) {
+        FetchContactsTask(ContactsFragment context, ContactsIndex contactsIndex) {
 
             mFragmentWeakReference = new WeakReference<>(context);
+            mContactsIndex = contactsIndex;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mStarted = System.nanoTime();
         }
 
         @Override
-        protected Map<String, User> doInBackground(Object... params) {
+        protected List<Contact> doInBackground(ContentResolver... params) {
 
-            LogUtils.debug(TAG, "++doInBackground(Object... params)");
-            Map<String, User> users = new HashMap<>();
-            ContentResolver contentResolver = (ContentResolver) params[0];
+            LogUtils.debug(TAG, "++doInBackground(ContentResolver...)");
+            ContentResolver contentResolver = params[0];
             if (contentResolver == null) {
                 LogUtils.warn(TAG, "ContentResolver unexpected.");
-                return users;
+                return null;
             }
 
-            Cursor cursor = contentResolver.query(ContactsContract.Contacts.CONTENT_URI, null, null, null, null);
-            if (cursor != null && cursor.getCount() > 0) {
-                while (cursor.moveToNext()) { // loop for every contact in the phone
-                    User user = new User();
-                    user.Id = cursor.getString(cursor.getColumnIndex(ContactsContract.Contacts._ID));
-                    user.FullName = cursor.getString(cursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME));
-                    user.PhotoUri = cursor.getString(cursor.getColumnIndex(ContactsContract.Contacts.PHOTO_URI));
-
-                    // Query and loop for every email of the contact
-                    Cursor emailCursor = contentResolver.query(
-                        ContactsContract.CommonDataKinds.Email.CONTENT_URI,
-                        null,
-                        ContactsContract.CommonDataKinds.Email.CONTACT_ID + " = ?",
-                        new String[]{user.Id},
-                        null);
-                    if (emailCursor != null && emailCursor.getCount() > 0) {
-                        while (emailCursor.moveToNext()) {
-                            user.Email = emailCursor.getString(emailCursor.getColumnIndex(ContactsContract.CommonDataKinds.Email.DATA));
-                        }
-
-                        emailCursor.close();
-                        users.put(user.Id, user);
-                    } else {
-                        LogUtils.error(TAG, "Skipping user with no email addresses.");
+            Trace.beginSection("FetchContactsTask.doInBackground");
+            try {
+                List<Contact> contacts = null;
+                if (mContactsIndex.getLastSync() == 0) {
+                    mContactsIndex.rebuild(contentResolver, PAGE_SIZE, this::publishProgress);
+                } else {
+                    mContactsIndex.read(PAGE_SIZE, this::publishProgress);
+                    if (!isCancelled() && mContactsIndex.sync(contentResolver)) {
+                        contacts = new ArrayList<>();
+                        mContactsIndex.read(PAGE_SIZE, contacts::addAll);
                     }
                 }
 
-                cursor.close();
-            } else {
-                LogUtils.error(TAG, "Unable to query contacts.");
+                mUnmatched = mContactsIndex.readUnmatched(Calendar.getInstance().getTimeInMillis() - ContactMatcher.MATCH_TTL);
+                return contacts;
+            } finally {
+                Trace.endSection();
             }
-
-            return users;
         }
 
+        @SafeVarargs
         @Override
-        protected void onPostExecute(Map<String, User> contacts) {
+        protected final void onProgressUpdate(List<Contact>... pages) {
 
-            LogUtils.debug(TAG, "++onPostExecute((Map<String, User>)");
             ContactsFragment fragment = mFragmentWeakReference.get();
             if (fragment == null || fragment.isDetached()) {
                 LogUtils.error(TAG, "Fragment is null or detached.");
+                cancel(false);
                 return;
             }
 
-            fragment.mContactList = contacts;
-            fragment.updateUI();
+            for (List<Contact> page : pages) {
+                fragment.onContactsLoaded(page);
+            }
+
+            if (!mShownFirstPage) {
+                mShownFirstPage = true;
+                sFirstPage.recordNanos(System.nanoTime() - mStarted);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(List<Contact> contacts) {
+
+            ContactsFragment fragment = mFragmentWeakReference.get();
+            if (fragment == null || fragment.isDetached()) {
+                return;
+            }
+
+            if (contacts != null) {
+                fragment.onContactsChanged(contacts);
+            }
+
+            sLoad.recordNanos(System.nanoTime() - mStarted);
+
+            if (mUnmatched != null && !mUnmatched.isEmpty()) {
+                fragment.mContactMatcher.match(mUnmatched, fragment::onContactsMatched);
+            }
         }
     }
 }
@@ -19,37 +19,46 @@ package net.frostedbytes.android.whereareyou.fragments;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Trace;
 import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AlertDialog;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Switch;
 import android.widget.TextView;
 
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import net.frostedbytes.android.whereareyou.BaseActivity;
 import net.frostedbytes.android.whereareyou.R;
+import net.frostedbytes.android.whereareyou.data.FriendsRepository;
+import net.frostedbytes.android.whereareyou.data.LocationsRepository;
+import net.frostedbytes.android.whereareyou.data.UserStore;
+import net.frostedbytes.android.whereareyou.location.ProximityEngine;
+import net.frostedbytes.android.whereareyou.metrics.LatencyHistogram;
+import net.frostedbytes.android.whereareyou.metrics.Metrics;
 import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendDiff;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
 import net.frostedbytes.android.whereareyou.models.User;
 import net.frostedbytes.android.whereareyou.utils.DateUtils;
 import net.frostedbytes.android.whereareyou.utils.LogUtils;
-import net.frostedbytes.android.whereareyou.utils.PathUtils;
 import net.frostedbytes.android.whereareyou.views.TouchableImageView;
 
 import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
@@ -58,12 +67,34 @@ public class FriendListFragment extends Fragment {
 
     private static final String TAG = BASE_TAG + FriendListFragment.class.getSimpleName();
 
+    private static final Comparator<String> NAME_ORDER = Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Orders friends by display name, falling back on Id so the order is stable between snapshots; names may be null.
+     */
+    private static final Comparator<Friend> FRIEND_ORDER = (first, second) -> {
+
+        int result = NAME_ORDER.compare(first.FullName, second.FullName);
+        return result != 0 ? result : first.Id.compareTo(second.Id);
+    };
+
+    /**
+     * Payload used when only the location or timestamps of a friend changed; only the last known date is rebound.
+     */
+    private static final Object PAYLOAD_TIMESTAMP = new Object();
+
+    private static final LatencyHistogram sSnapshotToList = Metrics.histogram("friends.snapshot_to_list");
+
     public interface OnFriendListListener {
 
         void onAcceptFriend(Friend friend);
 
+        void onAcceptFriends(List<Friend> friends);
+
         void onDeclineFriend(Friend friend);
 
+        void onDeclineFriends(List<Friend> friends);
+
         void onDeleteFriend(Friend friend);
 
         void onDeleteRequest(Friend friend);
@@ -82,17 +113,62 @@ public class FriendListFragment extends Fragment {
     private FloatingActionButton mAddFriendButton;
     private RecyclerView mRecyclerView;
 
-    private ListenerRegistration mListenerRegistration;
-
-    private Map<String, Friend> mFriendList;
+    private FriendAdapter mFriendAdapter;
+    private FriendsRepository mFriendsRepository;
+    private LocationsRepository mLocationsRepository;
+    private ProximityEngine mProximityEngine;
+    private boolean mSortByDistance;
     private User mUser;
 
+    /**
+     * Re-sorts the list when friends move past one another; only while the list is ordered by distance.
+     */
+    private final ProximityEngine.OnOrderChangedListener mOrderListener = () -> {
+
+        if (mSortByDistance && mFriendsRepository.isLoaded()) {
+            updateUI();
+        }
+    };
+
+    /**
+     * Keeps the shared location listener, and with it the proximity order, attached while sorting by distance; the
+     * list itself is re-sorted through mOrderListener.
+     */
+    private final LocationsRepository.OnLocationsChangedListener mLocationsListener = changedIds -> { };
+
+    /**
+     * Rebuilds the list from the shared repository; the list is small enough that diffing the sorted copy is cheaper
+     * than tracking individual positions.
+     */
+    private final FriendsRepository.OnFriendsChangedListener mFriendsListener = new FriendsRepository.OnFriendsChangedListener() {
+
+        @Override
+        public void onFriendsChanged(Collection<String> changedIds) {
+
+            LogUtils.debug(TAG, "++onFriendsChanged(%d)", changedIds.size());
+            long arrived = mFriendsRepository.getSnapshotTime();
+            updateUI();
+            if (arrived != 0) {
+                sSnapshotToList.recordNanos(System.nanoTime() - arrived);
+            }
+
+            mCallback.onFriendListQueryComplete();
+        }
+
+        @Override
+        public void onFriendsQueryFailed() {
+
+            LogUtils.debug(TAG, "++onFriendsQueryFailed()");
+            mCallback.onListQueryFailed();
+        }
+    };
+
     public static FriendListFragment newInstance(User user) {
 
         LogUtils.debug(TAG, "++newInstance(User)");
         FriendListFragment fragment = new FriendListFragment();
         Bundle args = new Bundle();
-        args.putSerializable(BaseActivity.ARG_USER, user);
+        args.putString(BaseActivity.ARG_USER_ID, user.Id);
         fragment.setArguments(args);
         return fragment;
     }
@@ -110,12 +186,23 @@ public class FriendListFragment extends Fragment {
 
         Bundle arguments = getArguments();
         if (arguments != null) {
-            mUser = (User)arguments.getSerializable(BaseActivity.ARG_USER);
+            mUser = UserStore.get(arguments.getString(BaseActivity.ARG_USER_ID));
+            mFriendsRepository = FriendsRepository.getInstance(mUser.Id);
+            mLocationsRepository = LocationsRepository.getInstance(mUser.Id);
+            mProximityEngine = ProximityEngine.getInstance();
         } else {
             LogUtils.error(TAG, "Arguments were null.");
         }
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        LogUtils.debug(TAG, "++onCreate(Bundle)");
+        setHasOptionsMenu(true);
+    }
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 
@@ -125,165 +212,125 @@ public class FriendListFragment extends Fragment {
         mRecyclerView = view.findViewById(R.id.main_list_view);
         mAddFriendButton = view.findViewById(R.id.main_button_add_friend);
 
-        // get list of friends for display
-        String queryPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-        Query query = FirebaseFirestore.getInstance().collection(queryPath);
-        mListenerRegistration = query.addSnapshotListener((snapshot, e) -> {
-
-            if (e != null) {
-                LogUtils.error(TAG, "%s", e.getMessage());
-                mCallback.onListQueryFailed();
-                return;
-            }
-
-            if (snapshot == null) {
-                LogUtils.error(TAG, "FriendList query snapshot is null: %s", queryPath);
-                mCallback.onListQueryFailed();
-                return;
-            }
-
-            mFriendList = new HashMap<>();
-            List<DocumentSnapshot> documents = snapshot.getDocuments();
-            if (!documents.isEmpty()) {
-                for (DocumentSnapshot document : documents) {
-                    Friend friend = document.toObject(Friend.class);
-                    if (friend != null) {
-                        friend.Id = document.getId();
-                        mFriendList.put(friend.Id, friend);
-                    }
-                }
-            } else {
-                LogUtils.debug(TAG, "getDocuments() is empty: %s", queryPath);
-            }
-
-            updateUI();
-        });
+        mFriendAdapter = new FriendAdapter();
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mRecyclerView.setAdapter(mFriendAdapter);
 
-        // look for any temporary friend requests based on email as key
-        List<User> users = new ArrayList<>();
-        FirebaseFirestore.getInstance().collection(User.USERS_ROOT).get().addOnCompleteListener(task -> {
+        mAddFriendButton.setEnabled(false);
+        mAddFriendButton.setOnClickListener(pickView -> mCallback.onShowContactList());
 
-            if (task.isSuccessful()) {
-                if (task.getResult() != null) {
+        return view;
+    }
 
-                    // look through all users of the system; ignoring the record for the current user
-                    for (QueryDocumentSnapshot snapshot : task.getResult()) {
-                        if (snapshot.getId().equals(mUser.Id)) {
-                            continue;
-                        }
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        LogUtils.debug(TAG, "++onStart()");
+        mFriendsRepository.addListener(mFriendsListener);
+        mProximityEngine.addListener(mOrderListener);
+        if (mSortByDistance) {
+            mLocationsRepository.addListener(mLocationsListener);
+        }
+    }
 
-                        users.add(snapshot.toObject(User.class));
-                    }
-                } else {
-                    LogUtils.debug(TAG, "Task result is null.");
-                }
-            } else {
-                LogUtils.debug(TAG, "Task was unsuccessful.");
-            }
+    @Override
+    public void onStop() {
+        super.onStop();
 
-            queryFriendListOfUsers(users);
-            mCallback.onFriendListQueryComplete();
-        });
+        LogUtils.debug(TAG, "++onStop()");
+        mFriendsRepository.removeListener(mFriendsListener);
+        mProximityEngine.removeListener(mOrderListener);
+        mLocationsRepository.removeListener(mLocationsListener);
+    }
 
-        mAddFriendButton.setEnabled(false);
-        mAddFriendButton.setOnClickListener(pickView -> mCallback.onShowContactList());
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        super.onCreateOptionsMenu(menu, inflater);
 
-        return view;
+        LogUtils.debug(TAG, "++onCreateOptionsMenu(Menu, MenuInflater)");
+        inflater.inflate(R.menu.friend_list_options, menu);
+        menu.findItem(R.id.friend_list_menu_nearest_first).setChecked(mSortByDistance);
     }
 
     @Override
-    public void onDestroy() {
-        super.onDestroy();
+    public boolean onOptionsItemSelected(MenuItem item) {
 
-        LogUtils.debug(TAG, "++onDestroy()");
-        if (mListenerRegistration != null) {
-            mListenerRegistration.remove();
-            mListenerRegistration = null;
-        }
-    }
+        LogUtils.debug(TAG, "++onOptionsItemSelected(%s)", item.getTitle());
+        List<Friend> pending = new ArrayList<>(mFriendsRepository.getFriends(FriendStatus.PENDING));
 
-    /*
-        TODO: replace with server side function
-     */
-    private void queryFriendListOfUsers(List<User> appUsers) {
-
-        LogUtils.debug(TAG, "++queryFriendListOfUsers(List<>)");
-        for (User appUser : appUsers) {
-            String queryPath = PathUtils.combine(User.USERS_ROOT, appUser.Id, Friend.FRIENDS_ROOT);
-            FirebaseFirestore.getInstance().collection(queryPath).get().addOnCompleteListener(task -> {
-
-                if (task.isSuccessful()) {
-                    if (task.getResult() != null) {
-                        for (QueryDocumentSnapshot snapshot : task.getResult()) {
-
-                            // grab the friends of user from data store
-                            Friend friend = snapshot.toObject(Friend.class);
-                            friend.Id = snapshot.getId();
-                            if (friend.Id.equals(mUser.getEmailAsKey())) {
-
-                                // copy existing friend and change path to Id instead of emailAsKey
-                                Friend updatedFriend = new Friend(mUser);
-                                updatedFriend.Status = 1; // waiting
-                                String friendsPath = PathUtils.combine(User.USERS_ROOT, appUser.Id, Friend.FRIENDS_ROOT);
-                                FirebaseFirestore.getInstance().collection(friendsPath).document(mUser.Id).set(updatedFriend)
-                                    .addOnSuccessListener(aVoid -> {
-                                        LogUtils.debug(TAG, "Friend created successfully for %s under %s", mUser.Id, appUser.Id);
-
-                                        // remove emailAsKey item
-                                        String removePath = PathUtils.combine(User.USERS_ROOT, appUser.Id, Friend.FRIENDS_ROOT, mUser.getEmailAsKey());
-                                        FirebaseFirestore.getInstance().document(removePath).delete()
-                                            .addOnSuccessListener(aVoid1 -> LogUtils.debug(TAG, "Successfully removed old friend listing for %s under %s", mUser.getEmailAsKey(), appUser.Id))
-                                            .addOnFailureListener(e -> LogUtils.debug(TAG, "Error removing old friend listing for %s under %s", mUser.getEmailAsKey(), appUser.Id));
-                                    })
-                                    .addOnFailureListener(e -> LogUtils.warn(TAG, "Error creating friend for %s under %s - %s", mUser.Id, appUser.Id, e.getMessage()));
-
-                                // create a friend request for the current user
-                                friendsPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-                                Friend requester = new Friend(appUser);
-                                requester.Status = 0; // pending
-                                FirebaseFirestore.getInstance().collection(friendsPath).document(requester.Id).set(requester)
-                                    .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Friend created successfully for %s under %s", appUser.Id, mUser.Id))
-                                    .addOnFailureListener(e -> LogUtils.warn(TAG, "Error creating friend for %s under %s - %s", appUser.Id, mUser.Id, e.getMessage()));
-                            } else if (friend.Id.equals(mUser.Id) && friend.Status == 1) {
-
-                                // found waiting friend request under appUser, need to create a pending friend request under the current user
-                                String friendsPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-                                Friend requester = new Friend(appUser);
-                                requester.Status = 0; // pending
-                                FirebaseFirestore.getInstance().collection(friendsPath).document(requester.Id).set(requester)
-                                    .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Friend request created successfully for %s under %s", requester.Id, mUser.Id))
-                                    .addOnFailureListener(e -> LogUtils.warn(TAG, "Error creating friend request for %s under %s - %s", requester.Id, mUser.Id, e.getMessage()));
-                            }
-                        }
-                    } else {
-                        LogUtils.debug(TAG, "Task result is null.");
-                    }
+        switch (item.getItemId()) {
+            case R.id.friend_list_menu_nearest_first:
+                mSortByDistance = !mSortByDistance;
+                item.setChecked(mSortByDistance);
+                if (mSortByDistance) {
+                    mLocationsRepository.addListener(mLocationsListener);
                 } else {
-                    LogUtils.debug(TAG, "Task was unsuccessful.");
+                    mLocationsRepository.removeListener(mLocationsListener);
                 }
-            });
+
+                updateUI();
+                return true;
+            case R.id.friend_list_menu_accept_all:
+                if (!pending.isEmpty()) {
+                    mCallback.onAcceptFriends(pending);
+                }
+
+                return true;
+            case R.id.friend_list_menu_decline_all:
+                if (!pending.isEmpty() && getActivity() != null) {
+                    AlertDialog dialog = new AlertDialog.Builder(getActivity())
+                        .setTitle(getString(R.string.decline_all_requests_title, pending.size()))
+                        .setPositiveButton(android.R.string.ok, (positiveDialog, which) -> mCallback.onDeclineFriends(pending))
+                        .setNegativeButton(android.R.string.cancel, (negativeDialog, which) -> {
+                        })
+                        .create();
+                    dialog.show();
+                }
+
+                return true;
         }
+
+        return super.onOptionsItemSelected(item);
     }
 
     private void updateUI() {
 
         LogUtils.debug(TAG, "++updateUI()");
         mAddFriendButton.setEnabled(true);
-        FriendAdapter friendAdapter = new FriendAdapter(new ArrayList<>(mFriendList.values()));
-        mRecyclerView.setAdapter(friendAdapter);
-        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
-        if (mFriendList.isEmpty()) {
+        List<Friend> friends = new ArrayList<>(mFriendsRepository.getFriends());
+        Trace.beginSection("FriendListFragment.updateUI");
+        try {
+            if (mSortByDistance && mProximityEngine.hasOrigin()) { // friends without a known position go last, by name
+                Collections.sort(friends, (first, second) -> {
+
+                    int result = Integer.compare(mProximityEngine.getRank(first.Id), mProximityEngine.getRank(second.Id));
+                    return result != 0 ? result : FRIEND_ORDER.compare(first, second);
+                });
+            } else {
+                Collections.sort(friends, FRIEND_ORDER);
+            }
+
+            mFriendAdapter.submitList(friends);
+        } finally {
+            Trace.endSection();
+        }
+
+        if (friends.isEmpty()) {
             LogUtils.debug(TAG, "No friends were found for user.");
         }
     }
 
     class FriendAdapter extends RecyclerView.Adapter<FriendHolder> {
 
+        private final Map<String, Long> mItemIds;
         private List<Friend> mFriends;
 
-        FriendAdapter(List<Friend> friends) {
+        FriendAdapter() {
 
-            mFriends = friends;
+            mItemIds = new HashMap<>();
+            mFriends = new ArrayList<>();
+            setHasStableIds(true);
         }
 
         @NonNull
@@ -297,14 +344,101 @@ public class FriendListFragment extends Fragment {
         @Override
         public void onBindViewHolder(@NonNull FriendHolder holder, int position) {
 
-            Friend friend = mFriends.get(position);
-            holder.bind(friend);
+            Trace.beginSection("FriendListFragment.bind");
+            try {
+                holder.bind(mFriends.get(position));
+            } finally {
+                Trace.endSection();
+            }
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull FriendHolder holder, int position, @NonNull List<Object> payloads) {
+
+            if (payloads.isEmpty()) {
+                onBindViewHolder(holder, position);
+            } else {
+                holder.bindTimestamp(mFriends.get(position));
+            }
         }
 
         @Override
         public int getItemCount() {
             return mFriends.size();
         }
+
+        @Override
+        public long getItemId(int position) {
+
+            String friendId = mFriends.get(position).Id;
+            Long itemId = mItemIds.get(friendId);
+            if (itemId == null) {
+                itemId = (long) mItemIds.size();
+                mItemIds.put(friendId, itemId);
+            }
+
+            return itemId;
+        }
+
+        /**
+         * Replaces the current list of friends, dispatching only the rows that were added, removed, moved or changed.
+         *
+         * @param friends - Sorted list of friends to display
+         */
+        void submitList(List<Friend> friends) {
+
+            List<Friend> previous = mFriends;
+            if (FriendDiff.isUnchanged(previous, friends)) {
+                mFriends = friends;
+                return;
+            }
+
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new FriendDiffCallback(previous, friends));
+            mFriends = friends;
+            result.dispatchUpdatesTo(this);
+        }
+    }
+
+    static class FriendDiffCallback extends DiffUtil.Callback {
+
+        private final List<Friend> mOldFriends;
+        private final List<Friend> mNewFriends;
+
+        FriendDiffCallback(List<Friend> oldFriends, List<Friend> newFriends) {
+
+            mOldFriends = oldFriends;
+            mNewFriends = newFriends;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldFriends.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewFriends.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return FriendDiff.isSameItem(mOldFriends.get(oldItemPosition), mNewFriends.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return FriendDiff.isSameContent(mOldFriends.get(oldItemPosition), mNewFriends.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+
+            if (FriendDiff.isSameDisplay(mOldFriends.get(oldItemPosition), mNewFriends.get(newItemPosition))) {
+                return PAYLOAD_TIMESTAMP;
+            }
+
+            return null;
+        }
     }
 
     class FriendHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
@@ -423,7 +557,7 @@ public class FriendListFragment extends Fragment {
                     mVisibleSwitch.setEnabled(true);
                     mAcceptImageView.setVisibility(View.INVISIBLE);
                     mDeclineImageView.setVisibility(View.INVISIBLE);
-                    mLastKnownDateTextView.setText(DateUtils.formatDateForDisplay(friend.UpdatedDate));
+                    bindTimestamp(friend);
                     break;
                 case 3:
                     mVisibleSwitch.setChecked(false);
@@ -434,6 +568,14 @@ public class FriendListFragment extends Fragment {
             }
         }
 
+        void bindTimestamp(Friend friend) {
+
+            mFriend = friend;
+            if (FriendStatus.isSharing(mFriend.Status)) {
+                mLastKnownDateTextView.setText(DateUtils.formatDateForDisplay(friend.UpdatedDate));
+            }
+        }
+
         @Override
         public void onClick(View view) {
 
@@ -17,23 +17,21 @@
 package net.frostedbytes.android.whereareyou.fragments;
 
 import android.Manifest;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.drawable.Drawable;
+import android.location.Location;
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.res.ResourcesCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapView;
@@ -42,24 +40,25 @@ import com.google.android.gms.maps.UiSettings;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.SetOptions;
 
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 import net.frostedbytes.android.whereareyou.BaseActivity;
 import net.frostedbytes.android.whereareyou.R;
+import net.frostedbytes.android.whereareyou.data.FriendsRepository;
+import net.frostedbytes.android.whereareyou.data.LocationsRepository;
+import net.frostedbytes.android.whereareyou.data.UserStore;
+import net.frostedbytes.android.whereareyou.location.LocationService;
+import net.frostedbytes.android.whereareyou.map.ClusterController;
+import net.frostedbytes.android.whereareyou.map.MarkerIcons;
 import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
 import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.models.UserLocation;
 import net.frostedbytes.android.whereareyou.utils.DateUtils;
 import net.frostedbytes.android.whereareyou.utils.LogUtils;
-import net.frostedbytes.android.whereareyou.utils.PathUtils;
 
 import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
 
@@ -74,24 +73,73 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
 
     private OnMappingListener mCallback;
 
-    private List<Friend> mFriendList;
+    private FriendsRepository mFriendsRepository;
+    private LocationsRepository mLocationsRepository;
     private double mPreviousLatitude;
     private double mPreviousLongitude;
     private User mUser;
 
-    private final Handler mHandler = new Handler();
-    private Timer mTimer;
-    private TimerTask mTimerTask;
     private GoogleMap mGoogleMap;
     private MapView mMapView;
-    private FusedLocationProviderClient mFusedLocationClient;
+    private ClusterController mClusterController;
+
+    private boolean mIsStarted;
+
+    /**
+     * Receives fixes published by the {@link LocationService}; keeps the user's position current for the camera.
+     */
+    private final BroadcastReceiver mLocationReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+
+            onLocationPublished(
+                intent.getDoubleExtra(LocationService.ARG_LATITUDE, mUser.Latitude),
+                intent.getDoubleExtra(LocationService.ARG_LONGITUDE, mUser.Longitude),
+                intent.getLongExtra(LocationService.ARG_TIMESTAMP, mUser.TimeStamp));
+        }
+    };
+
+    /**
+     * Keeps the marker layer in step with accepted friends; friends whose status moved away from accepted are dropped.
+     */
+    private final FriendsRepository.OnFriendsChangedListener mFriendsListener = new FriendsRepository.OnFriendsChangedListener() {
+
+        @Override
+        public void onFriendsChanged(Collection<String> changedIds) {
+
+            LogUtils.debug(TAG, "++onFriendsChanged(%d)", changedIds.size());
+            for (String friendId : changedIds) {
+                updateFriend(friendId);
+            }
+
+            mCallback.onMapUpdated();
+        }
+
+        @Override
+        public void onFriendsQueryFailed() {
+
+            LogUtils.warn(TAG, "Friend list unavailable; markers were not updated.");
+        }
+    };
+
+    /**
+     * Moves markers as friends publish new positions.
+     */
+    private final LocationsRepository.OnLocationsChangedListener mLocationsListener = changedIds -> {
+
+        LogUtils.debug(TAG, "++onLocationsChanged(%d)", changedIds.size());
+        for (String friendId : changedIds) {
+            updateFriend(friendId);
+        }
+    };
 
     public static MappingFragment newInstance(User user) {
 
         LogUtils.debug(TAG, "++newInstance(User)");
         MappingFragment fragment = new MappingFragment();
         Bundle args = new Bundle();
-        args.putSerializable(BaseActivity.ARG_USER, user);
+        args.putString(BaseActivity.ARG_USER_ID, user.Id);
         fragment.setArguments(args);
         return fragment;
     }
@@ -109,7 +157,9 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
 
         Bundle arguments = getArguments();
         if (arguments != null) {
-            mUser = (User)arguments.getSerializable(BaseActivity.ARG_USER);
+            mUser = UserStore.get(arguments.getString(BaseActivity.ARG_USER_ID));
+            mFriendsRepository = FriendsRepository.getInstance(mUser.Id);
+            mLocationsRepository = LocationsRepository.getInstance(mUser.Id);
         } else {
             LogUtils.error(TAG, "Arguments were null.");
         }
@@ -123,23 +173,51 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
 
         mMapView = view.findViewById(R.id.mapping_map_view);
         mMapView.onCreate(savedInstanceState);
-        mMapView.onResume();
         mMapView.getMapAsync(this);
-        if (getActivity() != null) {
-            mFusedLocationClient = LocationServices.getFusedLocationProviderClient(getActivity());
-        }
-
-        startLocationRetrievalTask();
         return view;
     }
 
     @Override
-    public void onDestroy() {
-        super.onDestroy();
+    public void onDestroyView() {
+        super.onDestroyView();
         mMapView.onDestroy();
 
-        LogUtils.debug(TAG, "++onDestroy()");
-        stopTimer();
+        LogUtils.debug(TAG, "++onDestroyView()");
+        if (mClusterController != null) {
+            mClusterController.release();
+            mClusterController = null;
+        }
+
+        mGoogleMap = null;
+    }
+
+    /**
+     * Hidden while another screen is shown; the map is paused and stopped as if the fragment itself had been.
+     */
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+
+        LogUtils.debug(TAG, "++onHiddenChanged(%s)", String.valueOf(hidden));
+        if (hidden) {
+            if (isResumed()) {
+                mMapView.onPause();
+            }
+
+            if (mIsStarted) {
+                mMapView.onStop();
+                stopWork();
+            }
+        } else {
+            if (mIsStarted) {
+                mMapView.onStart();
+                startWork();
+            }
+
+            if (isResumed()) {
+                mMapView.onResume();
+            }
+        }
     }
 
     @Override
@@ -151,18 +229,24 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
     }
 
     @Override
+    @SuppressWarnings("MissingPermission")
     public void onMapReady(GoogleMap map) {
 
         LogUtils.debug(TAG, "++onMapReady(GoogleMap)");
         mGoogleMap = map;
+        BitmapDescriptor icon = MarkerIcons.get(getResources(), R.drawable.ic_pin_light);
+        if (icon == null) {
+            icon = BitmapDescriptorFactory.defaultMarker();
+        }
+
+        mClusterController = new ClusterController(mGoogleMap, icon);
+        mGoogleMap.setOnCameraIdleListener(mClusterController);
         UiSettings uiSettings = mGoogleMap.getUiSettings();
         uiSettings.setZoomControlsEnabled(true);
         uiSettings.setCompassEnabled(true);
-        if (getActivity() != null &&
-            ActivityCompat.checkSelfPermission(getActivity(), Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-            mGoogleMap.setMyLocationEnabled(true);
+        if (hasLocationPermission()) {
+            mGoogleMap.setMyLocationEnabled(mIsStarted && !isHidden());
             if (mUser != null && (mUser.Latitude > 0 && mUser.Longitude > 0)) {
-                mGoogleMap.clear();
                 LatLng position = new LatLng(mUser.Latitude, mUser.Longitude);
                 mGoogleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(position, 15));
                 mGoogleMap.animateCamera(CameraUpdateFactory.zoomIn());
@@ -175,14 +259,51 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
         uiSettings.setScrollGesturesEnabled(true);
         uiSettings.setZoomGesturesEnabled(true);
         uiSettings.setRotateGesturesEnabled(true);
+        updateMarkers();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        LogUtils.debug(TAG, "++onPause()");
+        if (!isHidden()) {
+            mMapView.onPause();
+        }
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        mMapView.onResume();
 
         LogUtils.debug(TAG, "++onResume()");
+        if (!isHidden()) {
+            mMapView.onResume();
+        }
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        LogUtils.debug(TAG, "++onStart()");
+        mIsStarted = true;
+        if (!isHidden()) {
+            mMapView.onStart();
+            startWork();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+
+        LogUtils.debug(TAG, "++onStop()");
+        mIsStarted = false;
+        if (!isHidden()) {
+            mMapView.onStop();
+            stopWork();
+        }
     }
 
     @Override
@@ -196,103 +317,66 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
     /*
         Private Support Methods
      */
-    @SuppressWarnings("MissingPermission")
-    private void getLastLocation() {
+    private boolean hasLocationPermission() {
 
-        LogUtils.debug(TAG, "++getLastLocation()");
-        if (mFusedLocationClient == null) {
-            LogUtils.error(TAG, "Location client is not ready.");
-        } else {
-            mFusedLocationClient.getLastLocation()
-                .addOnSuccessListener(location -> {
-                    if (location != null) {
-                        mUser.Latitude = location.getLatitude();
-                        mUser.Longitude = location.getLongitude();
-                    } else {
-                        LogUtils.debug(TAG, "Location data appears to be cached; no movement by user; updating timestamp only.");
-                    }
-
-                    mUser.TimeStamp = Calendar.getInstance().getTimeInMillis();
-                    LogUtils.debug(
-                        TAG,
-                        "Longitude: %f Latitude: %f Timestamp: %s",
-                        mUser.Longitude,
-                        mUser.Latitude,
-                        DateUtils.formatDateForDisplay(mUser.TimeStamp));
-
-                    // add/update location to firestore
-                    FirebaseFirestore.getInstance().collection(User.USERS_ROOT).document(mUser.Id).set(mUser, SetOptions.merge())
-                        .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Location information successfully merged for %s", mUser.Id))
-                        .addOnFailureListener(e -> LogUtils.warn(TAG, "Error merging location information for %s - %s", mUser.Id, e.getMessage()));
-                    updateMap();
-
-                    /*
-                        TODO: replace with server side function
-                     */
-                    // update this user's location for all of this user's friends
-                    if (mFriendList != null) {
-                        Friend asFriend = new Friend(mUser);
-                        asFriend.Longitude = mUser.Longitude;
-                        asFriend.Latitude = mUser.Latitude;
-                        asFriend.TimeStamp = mUser.TimeStamp;
-                        for (Friend friend : mFriendList) {
-                            if (friend.Status == 2) {
-                                LogUtils.debug(TAG, "Attempting to update %s location under %s friend list.", mUser.Id, friend.Id);
-                                String queryPath = PathUtils.combine(User.USERS_ROOT, friend.Id, Friend.FRIENDS_ROOT);
-                                FirebaseFirestore.getInstance().collection(queryPath).document(mUser.Id).set(asFriend, SetOptions.merge())
-                                    .addOnSuccessListener(aVoid -> LogUtils.debug(TAG, "Location information successfully merged for %s under %s", mUser.Id, friend.Id))
-                                    .addOnFailureListener(e -> LogUtils.warn(TAG, "Error merging location information for %s under %s - %s", mUser.Id, friend.Id, e.getMessage()));
-                            }
-                        }
-                    }
-                })
-                .addOnFailureListener(e -> LogUtils.error(TAG, "Location client getLastLocation() failed for %s - %s", mUser.Id, e.getMessage()));
-        }
+        return getActivity() != null &&
+            ActivityCompat.checkSelfPermission(getActivity(), Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
     }
 
-    private BitmapDescriptor getMarkerIconFromDrawable(Drawable drawable) {
-
-        Canvas canvas = new Canvas();
-        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-        canvas.setBitmap(bitmap);
-        drawable.setBounds(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
-        drawable.draw(canvas);
-        return BitmapDescriptorFactory.fromBitmap(bitmap);
+    private void onLocationPublished(double latitude, double longitude, long timeStamp) {
+
+        mUser.Latitude = latitude;
+        mUser.Longitude = longitude;
+        mUser.TimeStamp = timeStamp;
+        LogUtils.debug(
+            TAG,
+            "Longitude: %f Latitude: %f Timestamp: %s",
+            mUser.Longitude,
+            mUser.Latitude,
+            DateUtils.formatDateForDisplay(mUser.TimeStamp));
+        updateMap();
     }
 
-    private void startLocationRetrievalTask() {
+    /**
+     * Resumes listeners while the map is on screen; cached friends and the last published fix are applied straight
+     * away so the map catches up without waiting on the network.
+     */
+    @SuppressWarnings("MissingPermission")
+    private void startWork() {
 
-        LogUtils.debug(TAG, "++startLocationRetrievalTask()");
-        stopTimer();
-        mTimer = new Timer();
-        mTimerTask = new TimerTask() {
+        LogUtils.debug(TAG, "++startWork()");
+        startListening();
+        if (getActivity() != null) {
+            LocalBroadcastManager.getInstance(getActivity()).registerReceiver(
+                mLocationReceiver,
+                new IntentFilter(LocationService.ACTION_LOCATION_PUBLISHED));
+        }
 
-            public void run() {
-                mHandler.post(() -> getLastLocation());
-            }
-        };
+        Location lastPublished = LocationService.getLastPublished();
+        if (lastPublished != null && lastPublished.getTime() > mUser.TimeStamp) {
+            onLocationPublished(lastPublished.getLatitude(), lastPublished.getLongitude(), lastPublished.getTime());
+        }
 
-        LogUtils.debug(TAG, "Starting location timer.");
-        if (mUser != null && mUser.Frequency > 0) {
-            long timerDelay = mUser.Frequency * (60 * 1000);
-            mTimer.schedule(mTimerTask, (500), timerDelay);
-        } else {
-            LogUtils.warn(TAG, "User not initialized; waiting until next action to try again.");
+        // the my-location layer runs its own high accuracy requests; only while the map can be seen
+        if (mGoogleMap != null && hasLocationPermission()) {
+            mGoogleMap.setMyLocationEnabled(true);
         }
     }
 
-    private void stopTimer() {
+    /**
+     * Suspends listeners and the my-location layer once the map is off screen.
+     */
+    @SuppressWarnings("MissingPermission")
+    private void stopWork() {
 
-        LogUtils.debug(TAG, "++stopTimer()");
-        if (mTimerTask != null) {
-            mTimerTask.cancel();
+        LogUtils.debug(TAG, "++stopWork()");
+        stopListening();
+        if (getActivity() != null) {
+            LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mLocationReceiver);
         }
 
-        if (mTimer != null) {
-            LogUtils.debug(TAG, "Shutting down location timer.");
-            mTimer.cancel();
-            mTimer.purge();
-            mTimer = null;
+        if (mGoogleMap != null && hasLocationPermission()) {
+            mGoogleMap.setMyLocationEnabled(false);
         }
     }
 
@@ -301,7 +385,6 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
         LogUtils.debug(TAG, "++updateMap()");
 
         if (mGoogleMap != null) {
-            mGoogleMap.clear();
 
             // add user's location
             if (mPreviousLatitude == 0 && mPreviousLongitude == 0) {
@@ -313,32 +396,59 @@ public class MappingFragment extends Fragment implements OnMapReadyCallback {
                 mPreviousLongitude = mUser.Longitude;
             }
 
-            // setup listener on this user's friend path for updates
-            String queryPath = PathUtils.combine(User.USERS_ROOT, mUser.Id, Friend.FRIENDS_ROOT);
-            FirebaseFirestore.getInstance().collection(queryPath).whereEqualTo("Status", 2).get().addOnCompleteListener(task -> {
-
-                if (task.isSuccessful() && task.getResult() != null) {
-                    mFriendList = new ArrayList<>();
-                    for (QueryDocumentSnapshot snapshot : task.getResult()) {
-                        Friend friend = snapshot.toObject(Friend.class);
-                        mFriendList.add(friend);
-                        LatLng friendPosition = new LatLng(friend.Latitude, friend.Longitude);
-                        Drawable markerDrawable = ResourcesCompat.getDrawable(getResources(), R.drawable.ic_pin_light, null);
-                        if (markerDrawable != null) {
-                            BitmapDescriptor bitmap = getMarkerIconFromDrawable(markerDrawable);
-                            MarkerOptions friendMarker = new MarkerOptions()
-                                .position(friendPosition)
-                                .title(friend.FullName)
-                                .icon(bitmap);
-                            mGoogleMap.addMarker(friendMarker);
-                        } else {
-                            LogUtils.debug(TAG, "Unable to create marker resource.");
-                        }
-                    }
-                }
-
-                mCallback.onMapUpdated();
-            });
+            mCallback.onMapUpdated();
         }
     }
+
+    private void startListening() {
+
+        LogUtils.debug(TAG, "++startListening()");
+        stopListening();
+
+        // accepted friends; names and membership of the marker layer
+        mFriendsRepository.addListener(mFriendsListener);
+
+        // location documents of friends sharing with this user; also keeps the proximity order current
+        mLocationsRepository.addListener(mLocationsListener);
+    }
+
+    private void stopListening() {
+
+        LogUtils.debug(TAG, "++stopListening()");
+        mFriendsRepository.removeListener(mFriendsListener);
+        mLocationsRepository.removeListener(mLocationsListener);
+    }
+
+    private void updateFriend(String friendId) {
+
+        if (mClusterController == null) {
+            return;
+        }
+
+        // removed, not an accepted friend (yet), or no position shared so far
+        Friend friend = mFriendsRepository.getFriend(friendId);
+        UserLocation friendLocation = mLocationsRepository.getLocation(friendId);
+        if (friend == null || !FriendStatus.isSharing(friend.Status) || friendLocation == null) {
+            mClusterController.remove(friendId);
+            return;
+        }
+
+        mClusterController.update(friend.Id, friendLocation.Latitude, friendLocation.Longitude, friend.FullName);
+    }
+
+    private void updateMarkers() {
+
+        LogUtils.debug(TAG, "++updateMarkers()");
+        if (mClusterController == null || !mFriendsRepository.isLoaded()) {
+            return;
+        }
+
+        Set<String> friendIds = new HashSet<>();
+        for (Friend friend : mFriendsRepository.getFriends(FriendStatus.ACCEPTED)) {
+            friendIds.add(friend.Id);
+            updateFriend(friend.Id);
+        }
+
+        mClusterController.retainAll(friendIds);
+    }
 }
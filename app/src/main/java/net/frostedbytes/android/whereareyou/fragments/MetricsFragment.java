@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.fragments;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import net.frostedbytes.android.whereareyou.R;
+import net.frostedbytes.android.whereareyou.data.FirestoreCosts;
+import net.frostedbytes.android.whereareyou.metrics.CostLedger;
+import net.frostedbytes.android.whereareyou.metrics.Metrics;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Debug screen listing Firestore document costs against their budgets, then the in-app counters and latency
+ * percentiles; reached by long-pressing the name in the navigation header. The report can be shared as JSON for
+ * comparison between builds.
+ */
+public class MetricsFragment extends Fragment {
+
+    private static final String TAG = BASE_TAG + MetricsFragment.class.getSimpleName();
+
+    private TextView mReportText;
+
+    public static MetricsFragment newInstance() {
+
+        LogUtils.debug(TAG, "++newInstance()");
+        MetricsFragment fragment = new MetricsFragment();
+        Bundle args = new Bundle();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        LogUtils.debug(TAG, "++onCreate(Bundle)");
+        setHasOptionsMenu(true);
+    }
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+
+        LogUtils.debug(TAG, "++onCreateView(LayoutInflater, ViewGroup, Bundle)");
+        View view = inflater.inflate(R.layout.fragment_metrics, container, false);
+        mReportText = view.findViewById(R.id.metrics_text_report);
+        return view;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        LogUtils.debug(TAG, "++onResume()");
+        updateUI();
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        super.onCreateOptionsMenu(menu, inflater);
+
+        LogUtils.debug(TAG, "++onCreateOptionsMenu(Menu, MenuInflater)");
+        inflater.inflate(R.menu.metrics_options, menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+
+        LogUtils.debug(TAG, "++onOptionsItemSelected(MenuItem)");
+        switch (item.getItemId()) {
+            case R.id.metrics_menu_refresh:
+                updateUI();
+                return true;
+            case R.id.metrics_menu_export:
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("application/json");
+                intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_subject));
+                intent.putExtra(Intent.EXTRA_TEXT, Metrics.toJson(System.currentTimeMillis()));
+                startActivity(Intent.createChooser(intent, getString(R.string.export_metrics)));
+                return true;
+            case R.id.metrics_menu_reset:
+                Metrics.reset();
+                FirestoreCosts.reset();
+                updateUI();
+                return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void updateUI() {
+
+        String report = Metrics.toText();
+        mReportText.setText(CostLedger.toText() + "\n" + (report.isEmpty() ? getString(R.string.metrics_empty) : report));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.location;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Looper;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.Calendar;
+
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Requests continuous location updates from the fused provider and passes on only the fixes that get through the
+ * {@link LocationFilter}; batched deliveries are reduced to the newest accepted fix.
+ */
+public class LocationPublisher {
+
+    private static final String TAG = BASE_TAG + LocationPublisher.class.getSimpleName();
+
+    public static final float DEFAULT_MAX_ACCURACY = 100; // meters
+    public static final int DEFAULT_MAX_WAIT_INTERVALS = 3;
+    public static final int DEFAULT_PRIORITY = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+    public static final float DEFAULT_SMALLEST_DISPLACEMENT = 25; // meters
+
+    public interface OnLocationAcceptedListener {
+
+        void onLocationAccepted(Location location);
+    }
+
+    private final OnLocationAcceptedListener mListener;
+    private final FusedLocationProviderClient mFusedLocationClient;
+    private final LocationCallback mLocationCallback;
+
+    private LocationFilter mFilter;
+    private boolean mIsRunning;
+    private float mMaxAccuracy;
+    private int mMaxWaitIntervals;
+    private int mPriority;
+    private float mSmallestDisplacement;
+
+    public LocationPublisher(Context context, OnLocationAcceptedListener listener) {
+
+        mListener = listener;
+        mFusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+        mMaxAccuracy = DEFAULT_MAX_ACCURACY;
+        mMaxWaitIntervals = DEFAULT_MAX_WAIT_INTERVALS;
+        mPriority = DEFAULT_PRIORITY;
+        mSmallestDisplacement = DEFAULT_SMALLEST_DISPLACEMENT;
+        mLocationCallback = new LocationCallback() {
+
+            @Override
+            public void onLocationResult(LocationResult result) {
+
+                onLocations(result);
+            }
+        };
+    }
+
+    public boolean isRunning() {
+        return mIsRunning;
+    }
+
+    /**
+     * @param maxAccuracy - Fixes with a larger accuracy radius are dropped; in meters
+     */
+    public void setMaxAccuracy(float maxAccuracy) {
+        mMaxAccuracy = maxAccuracy;
+    }
+
+    /**
+     * @param maxWaitIntervals - Number of intervals the provider may hold fixes before delivering them as a batch
+     */
+    public void setMaxWaitIntervals(int maxWaitIntervals) {
+        mMaxWaitIntervals = maxWaitIntervals;
+    }
+
+    /**
+     * @param priority - One of the LocationRequest.PRIORITY_* values
+     */
+    public void setPriority(int priority) {
+        mPriority = priority;
+    }
+
+    /**
+     * @param smallestDisplacement - Movement required before a new fix is delivered or published; in meters
+     */
+    public void setSmallestDisplacement(float smallestDisplacement) {
+        mSmallestDisplacement = smallestDisplacement;
+    }
+
+    /**
+     * Starts (or restarts) location updates.
+     *
+     * @param frequency - Number of minutes between location updates
+     */
+    @SuppressWarnings("MissingPermission")
+    public void start(int frequency) {
+
+        LogUtils.debug(TAG, "++start(%d)", frequency);
+        stop();
+        long interval = frequency * (60 * 1000);
+        LocationRequest request = LocationRequest.create()
+            .setPriority(mPriority)
+            .setInterval(interval)
+            .setFastestInterval(interval / 2)
+            .setMaxWaitTime(interval * mMaxWaitIntervals)
+            .setSmallestDisplacement(mSmallestDisplacement);
+
+        // anything older than one batch is stale by the time it arrives
+        mFilter = new LocationFilter(mMaxAccuracy, interval * (mMaxWaitIntervals + 1), mSmallestDisplacement);
+        mFusedLocationClient.requestLocationUpdates(request, mLocationCallback, Looper.getMainLooper())
+            .addOnFailureListener(e -> LogUtils.error(TAG, "Requesting location updates failed - %s", e.getMessage()));
+        mIsRunning = true;
+    }
+
+    public void stop() {
+
+        if (mIsRunning) {
+            LogUtils.debug(TAG, "++stop()");
+            mFusedLocationClient.removeLocationUpdates(mLocationCallback);
+            mIsRunning = false;
+        }
+    }
+
+    private void onLocations(LocationResult result) {
+
+        long now = Calendar.getInstance().getTimeInMillis();
+        Location accepted = null;
+        for (Location location : result.getLocations()) {
+            if (mFilter.accept(location.getLatitude(), location.getLongitude(), location.getAccuracy(), location.getTime(), now)) {
+                accepted = location;
+            }
+        }
+
+        if (accepted != null) {
+            mListener.onLocationAccepted(accepted);
+        } else {
+            LogUtils.debug(TAG, "Dropped %d location(s); no meaningful change.", result.getLocations().size());
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.location;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.os.Build;
+import android.os.IBinder;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.content.LocalBroadcastManager;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.frostedbytes.android.whereareyou.BaseActivity;
+import net.frostedbytes.android.whereareyou.R;
+import net.frostedbytes.android.whereareyou.data.DocumentMaps;
+import net.frostedbytes.android.whereareyou.data.FirestoreCosts;
+import net.frostedbytes.android.whereareyou.data.FriendsRepository;
+import net.frostedbytes.android.whereareyou.data.Outbox;
+import net.frostedbytes.android.whereareyou.data.Outbox.Operation;
+import net.frostedbytes.android.whereareyou.data.Refs;
+import net.frostedbytes.android.whereareyou.metrics.Counter;
+import net.frostedbytes.android.whereareyou.metrics.LatencyHistogram;
+import net.frostedbytes.android.whereareyou.metrics.Metrics;
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
+import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.models.UserLocation;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Foreground service that owns location publishing for the signed-in user; it keeps running while the user moves
+ * between screens or backgrounds the app. Screens observe published fixes through {@link #ACTION_LOCATION_PUBLISHED}.
+ */
+public class LocationService extends Service implements LocationPublisher.OnLocationAcceptedListener {
+
+    private static final String TAG = BASE_TAG + LocationService.class.getSimpleName();
+
+    public static final String ACTION_LOCATION_PUBLISHED = "net.frostedbytes.android.whereareyou.LOCATION_PUBLISHED";
+    public static final String ARG_FREQUENCY = "frequency";
+    public static final String ARG_LATITUDE = "latitude";
+    public static final String ARG_LONGITUDE = "longitude";
+    public static final String ARG_TIMESTAMP = "timestamp";
+
+    private static final String CHANNEL_ID = "location_sharing";
+    private static final int NOTIFICATION_ID = 4702;
+
+    /*
+        Settings of the running service; a process started by the system to restart the service has nothing else
+     */
+    private static final String PREFERENCES_NAME = "location_service";
+    private static final String KEY_FREQUENCY = "frequency";
+    private static final String KEY_USER_ID = "user_id";
+
+    private static final LatencyHistogram sFixToAck = Metrics.histogram("location.fix_to_ack");
+    private static final Counter sFixes = Metrics.counter("location.fixes");
+
+    private static Location sLastPublished;
+    private static String sPublishedBy;
+
+    private int mFrequency;
+    private FriendsRepository mFriendsRepository;
+    private LocationPublisher mLocationPublisher;
+    private Outbox mOutbox;
+    private String mUserId;
+    private Set<String> mViewers; // accepted friends granted by the last write; null until known
+
+    /**
+     * Keeps the shared friend list attached while sharing; accepted friends are the viewers of each location write,
+     * and access is granted or revoked as soon as the set of accepted friends changes, without waiting for a new fix.
+     */
+    private final FriendsRepository.OnFriendsChangedListener mFriendsListener = new FriendsRepository.OnFriendsChangedListener() {
+
+        @Override
+        public void onFriendsChanged(Collection<String> changedIds) {
+
+            LogUtils.debug(TAG, "++onFriendsChanged(%d)", changedIds.size());
+            if (mUserId != null && mFriendsRepository.isLoaded()) {
+                Set<String> viewers = getAcceptedIds();
+                if (!viewers.equals(mViewers)) {
+                    mViewers = viewers;
+                    mOutbox.enqueue(shareWith(mUserId, viewers));
+                }
+            }
+        }
+
+        @Override
+        public void onFriendsQueryFailed() {
+
+            LogUtils.error(TAG, "Accepted friend query failed for %s", mUserId);
+        }
+    };
+
+    /**
+     * Starts the service, or updates the running service if the user or frequency changed.
+     *
+     * @param context - Context used to start the service
+     * @param user - Signed-in user
+     */
+    public static void start(Context context, User user) {
+
+        LogUtils.debug(TAG, "++start(Context, User)");
+        Intent intent = new Intent(context, LocationService.class);
+        intent.putExtra(BaseActivity.ARG_USER_ID, user.Id);
+        intent.putExtra(ARG_FREQUENCY, user.Frequency);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /**
+     * @return - Most recent fix published by the service, or null if none yet; lets screens catch up on fixes that were
+     * broadcast while they were not listening
+     */
+    public static Location getLastPublished() {
+        return sLastPublished;
+    }
+
+    /**
+     * Builds the write that lets exactly the given friends read the user's location. The outbox keeps only the newest
+     * write per document, so once the user has published a fix the write carries it; a Viewers-only merge would
+     * otherwise replace a fix still waiting in the queue.
+     *
+     * @param userId - Owner of the location
+     * @param viewers - Identifiers of the accepted friends
+     * @return - Write to Locations/{userId}
+     */
+    public static Operation shareWith(String userId, Collection<String> viewers) {
+
+        String locationPath = Refs.location(userId).getPath();
+        Location location = userId.equals(sPublishedBy) ? sLastPublished : null;
+        UserLocation userLocation = toUserLocation(location);
+        userLocation.Viewers.addAll(viewers);
+        if (location != null) {
+            return Operation.set(locationPath, DocumentMaps.fromUserLocation(userLocation));
+        }
+
+        return Operation.merge(locationPath, DocumentMaps.fromUserLocation(userLocation), "Viewers");
+    }
+
+    public static void stop(Context context) {
+
+        LogUtils.debug(TAG, "++stop(Context)");
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+        context.stopService(new Intent(context, LocationService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        LogUtils.debug(TAG, "++onCreate()");
+        FirestoreCosts.init(this);
+        mLocationPublisher = new LocationPublisher(this, this);
+        mOutbox = Outbox.getInstance(this);
+        startForeground(NOTIFICATION_ID, createNotification());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+
+        LogUtils.debug(TAG, "++onStartCommand(Intent, int, int)");
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        String userId;
+        int frequency;
+        if (intent == null) { // restarted by the system; keep publishing with the previous settings
+            userId = preferences.getString(KEY_USER_ID, null);
+            frequency = preferences.getInt(KEY_FREQUENCY, 1);
+        } else {
+            userId = intent.getStringExtra(BaseActivity.ARG_USER_ID);
+            frequency = intent.getIntExtra(ARG_FREQUENCY, 1);
+        }
+
+        if (userId == null || frequency <= 0) {
+            LogUtils.warn(TAG, "User not initialized; stopping location sharing.");
+            preferences.edit().clear().apply();
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        preferences.edit().putString(KEY_USER_ID, userId).putInt(KEY_FREQUENCY, frequency).apply();
+
+        if (!userId.equals(mUserId)) {
+            mUserId = userId;
+            mViewers = null;
+            listenForViewers();
+            mLocationPublisher.start(frequency);
+        } else if (frequency != mFrequency || !mLocationPublisher.isRunning()) {
+            mLocationPublisher.start(frequency);
+        } else {
+            LogUtils.debug(TAG, "Location sharing already running for %s.", mUserId);
+        }
+
+        mFrequency = frequency;
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        LogUtils.debug(TAG, "++onDestroy()");
+        mLocationPublisher.stop();
+        if (mFriendsRepository != null) {
+            mFriendsRepository.removeListener(mFriendsListener);
+            mFriendsRepository = null;
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onLocationAccepted(Location location) {
+
+        LogUtils.debug(TAG, "++onLocationAccepted(Location)");
+        sFixes.increment();
+        sLastPublished = location;
+        sPublishedBy = mUserId;
+        ProximityEngine.getInstance().setOrigin(location.getLatitude(), location.getLongitude());
+        Intent intent = new Intent(ACTION_LOCATION_PUBLISHED);
+        intent.putExtra(ARG_LATITUDE, location.getLatitude());
+        intent.putExtra(ARG_LONGITUDE, location.getLongitude());
+        intent.putExtra(ARG_TIMESTAMP, location.getTime());
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+
+        // the outbox keeps only the newest fix per document until it can be flushed
+        if (mUserId != null) {
+            writeLocation(location);
+        }
+    }
+
+    private Notification createNotification() {
+
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && notificationManager != null) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Location sharing", NotificationManager.IMPORTANCE_LOW);
+            notificationManager.createNotificationChannel(channel);
+        }
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setContentTitle(getString(R.string.app_name))
+            .setContentText("Sharing your location with friends.")
+            .setSmallIcon(R.drawable.ic_pin_light)
+            .setOngoing(true)
+            .build();
+    }
+
+    private Set<String> getAcceptedIds() {
+
+        Set<String> acceptedIds = new HashSet<>();
+        for (Friend friend : mFriendsRepository.getFriends(FriendStatus.ACCEPTED)) {
+            acceptedIds.add(friend.Id);
+        }
+
+        return acceptedIds;
+    }
+
+    private void listenForViewers() {
+
+        LogUtils.debug(TAG, "++listenForViewers()");
+        if (mFriendsRepository != null) {
+            mFriendsRepository.removeListener(mFriendsListener);
+        }
+
+        mFriendsRepository = FriendsRepository.getInstance(mUserId);
+        mFriendsRepository.addListener(mFriendsListener);
+    }
+
+    private void writeLocation(Location location) {
+
+        UserLocation userLocation = toUserLocation(location);
+        String locationPath = Refs.location(mUserId).getPath();
+        if (mFriendsRepository != null && mFriendsRepository.isLoaded()) {
+            mViewers = getAcceptedIds();
+            userLocation.Viewers.addAll(mViewers);
+            mOutbox.enqueue(
+                Operation.set(locationPath, DocumentMaps.fromUserLocation(userLocation))
+                    .withLatency(sFixToAck, location.getElapsedRealtimeNanos()));
+        } else { // friends are not known yet; keep the viewers from the previous update
+            mOutbox.enqueue(
+                Operation.merge(locationPath, DocumentMaps.fromUserLocation(userLocation), "Latitude", "Longitude", "TimeStamp")
+                    .withLatency(sFixToAck, location.getElapsedRealtimeNanos()));
+        }
+    }
+
+    /**
+     * @param location - Fix to copy, or null for an empty location
+     * @return - Location document without viewers
+     */
+    private static UserLocation toUserLocation(Location location) {
+
+        UserLocation userLocation = new UserLocation();
+        if (location != null) {
+            userLocation.Latitude = location.getLatitude();
+            userLocation.Longitude = location.getLongitude();
+            userLocation.TimeStamp = location.getTime();
+        }
+
+        return userLocation;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.frostedbytes.android.whereareyou.utils.GeoUtils;
+
+/**
+ * Keeps friends ordered by distance from the user. Coordinates are held in parallel arrays indexed by slot, so a new
+ * fix for the user recomputes every distance in one pass without allocating, and a new fix for a friend only moves
+ * that friend within the order. Must be used from the main thread.
+ */
+public class ProximityEngine {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    public interface OnOrderChangedListener {
+
+        void onOrderChanged();
+    }
+
+    private static ProximityEngine sInstance;
+
+    private final List<OnOrderChangedListener> mListeners;
+    private final Map<String, Integer> mSlots;
+
+    private int mBatchDepth;
+    private double[] mCosLatitudes;
+    private int mCount;
+    private double[] mDistances;
+    private boolean mHasOrigin;
+    private boolean mHasPendingChange;
+    private String[] mIds;
+    private double[] mLatitudes; // radians
+    private double[] mLongitudes; // radians
+    private int[] mOrder; // slots, nearest first
+    private double mOriginCosLatitude;
+    private double mOriginLatitude; // radians
+    private double mOriginLongitude; // radians
+    private int[] mRanks; // position of each slot in mOrder
+
+    public static synchronized ProximityEngine getInstance() {
+
+        if (sInstance == null) {
+            sInstance = new ProximityEngine();
+        }
+
+        return sInstance;
+    }
+
+    public ProximityEngine() {
+
+        mListeners = new ArrayList<>();
+        mSlots = new HashMap<>();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public void addListener(OnOrderChangedListener listener) {
+
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(OnOrderChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Starts a batch of changes; listeners are told about them at most once, when the matching endUpdate() is called.
+     * Batches may be nested.
+     */
+    public void beginUpdate() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch started with beginUpdate(); notifies listeners once if the order changed within the outermost batch.
+     */
+    public void endUpdate() {
+
+        if (mBatchDepth > 0 && --mBatchDepth == 0 && mHasPendingChange) {
+            mHasPendingChange = false;
+            notifyOrderChanged();
+        }
+    }
+
+    /**
+     * Forgets every friend; used when the signed in user changes. The origin is the device's position and is kept.
+     */
+    public void clear() {
+
+        boolean changed = mCount > 0;
+        for (int slot = 0; slot < mCount; slot++) {
+            mIds[slot] = null;
+        }
+
+        mSlots.clear();
+        mCount = 0;
+        if (changed) {
+            notifyOrderChanged();
+        }
+    }
+
+    /**
+     * @param id - Identifier of the friend
+     * @return - Distance from the user, or NaN if either position is unknown; in meters
+     */
+    public double getDistance(String id) {
+
+        Integer slot = mSlots.get(id);
+        return slot == null || !mHasOrigin ? Double.NaN : mDistances[slot];
+    }
+
+    /**
+     * @param rank - Position in the order, 0 being the nearest
+     * @return - Identifier of the friend at the position
+     */
+    public String getId(int rank) {
+        return mIds[mOrder[rank]];
+    }
+
+    /**
+     * @param id - Identifier of the friend
+     * @return - Position in the order, 0 being the nearest; Integer.MAX_VALUE if the friend has no position
+     */
+    public int getRank(String id) {
+
+        Integer slot = mSlots.get(id);
+        return slot == null ? Integer.MAX_VALUE : mRanks[slot];
+    }
+
+    /**
+     * @return - True once the user's position is known
+     */
+    public boolean hasOrigin() {
+        return mHasOrigin;
+    }
+
+    /**
+     * Removes the friend from the order.
+     *
+     * @param id - Identifier of the friend
+     */
+    public void remove(String id) {
+
+        Integer removed = mSlots.remove(id);
+        if (removed == null) {
+            return;
+        }
+
+        int slot = removed;
+        for (int rank = mRanks[slot]; rank < mCount - 1; rank++) {
+            mOrder[rank] = mOrder[rank + 1];
+            mRanks[mOrder[rank]] = rank;
+        }
+
+        // keep slots dense by moving the last slot into the gap
+        int last = mCount - 1;
+        if (slot != last) {
+            mIds[slot] = mIds[last];
+            mLatitudes[slot] = mLatitudes[last];
+            mLongitudes[slot] = mLongitudes[last];
+            mCosLatitudes[slot] = mCosLatitudes[last];
+            mDistances[slot] = mDistances[last];
+            mRanks[slot] = mRanks[last];
+            mOrder[mRanks[slot]] = slot;
+            mSlots.put(mIds[slot], slot);
+        }
+
+        mIds[last] = null;
+        mCount--;
+        notifyOrderChanged();
+    }
+
+    /**
+     * Sets the user's position and recomputes every distance.
+     *
+     * @param latitude - Latitude of the user; in degrees
+     * @param longitude - Longitude of the user; in degrees
+     */
+    public void setOrigin(double latitude, double longitude) {
+
+        mOriginLatitude = Math.toRadians(latitude);
+        mOriginLongitude = Math.toRadians(longitude);
+        mOriginCosLatitude = Math.cos(mOriginLatitude);
+        mHasOrigin = true;
+        for (int slot = 0; slot < mCount; slot++) {
+            mDistances[slot] = distance(slot);
+        }
+
+        // the order rarely changes much between fixes, so insertion sort is close to linear
+        boolean changed = false;
+        for (int rank = 1; rank < mCount; rank++) {
+            int slot = mOrder[rank];
+            double distance = mDistances[slot];
+            int target = rank;
+            while (target > 0 && mDistances[mOrder[target - 1]] > distance) {
+                mOrder[target] = mOrder[target - 1];
+                mRanks[mOrder[target]] = target;
+                target--;
+            }
+
+            if (target != rank) {
+                mOrder[target] = slot;
+                mRanks[slot] = target;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            notifyOrderChanged();
+        }
+    }
+
+    /**
+     * @return - Number of friends with a known position
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Adds the friend, or moves them to a new position.
+     *
+     * @param id - Identifier of the friend
+     * @param latitude - Latitude of the friend; in degrees
+     * @param longitude - Longitude of the friend; in degrees
+     */
+    public void update(String id, double latitude, double longitude) {
+
+        Integer existing = mSlots.get(id);
+        int slot;
+        if (existing == null) {
+            if (mCount == mIds.length) {
+                allocate(mCount * 2);
+            }
+
+            slot = mCount++;
+            mIds[slot] = id;
+            mOrder[slot] = slot;
+            mRanks[slot] = slot;
+            mSlots.put(id, slot);
+        } else {
+            slot = existing;
+        }
+
+        mLatitudes[slot] = Math.toRadians(latitude);
+        mLongitudes[slot] = Math.toRadians(longitude);
+        mCosLatitudes[slot] = Math.cos(mLatitudes[slot]);
+        mDistances[slot] = mHasOrigin ? distance(slot) : Double.POSITIVE_INFINITY;
+        if (reposition(slot) || existing == null) {
+            notifyOrderChanged();
+        }
+    }
+
+    /*
+        Private Support Methods
+     */
+    private void allocate(int capacity) {
+
+        mCosLatitudes = copy(mCosLatitudes, capacity);
+        mDistances = copy(mDistances, capacity);
+        mLatitudes = copy(mLatitudes, capacity);
+        mLongitudes = copy(mLongitudes, capacity);
+        String[] ids = new String[capacity];
+        int[] order = new int[capacity];
+        int[] ranks = new int[capacity];
+        if (mIds != null) {
+            System.arraycopy(mIds, 0, ids, 0, mCount);
+            System.arraycopy(mOrder, 0, order, 0, mCount);
+            System.arraycopy(mRanks, 0, ranks, 0, mCount);
+        }
+
+        mIds = ids;
+        mOrder = order;
+        mRanks = ranks;
+    }
+
+    private double[] copy(double[] source, int capacity) {
+
+        double[] destination = new double[capacity];
+        if (source != null) {
+            System.arraycopy(source, 0, destination, 0, mCount);
+        }
+
+        return destination;
+    }
+
+    /**
+     * Haversine distance from the origin; see GeoUtils.distance(), with the cosines already computed.
+     */
+    private double distance(int slot) {
+
+        double sinLatitude = Math.sin((mLatitudes[slot] - mOriginLatitude) / 2);
+        double sinLongitude = Math.sin((mLongitudes[slot] - mOriginLongitude) / 2);
+        double a = sinLatitude * sinLatitude + mOriginCosLatitude * mCosLatitudes[slot] * sinLongitude * sinLongitude;
+        return 2 * GeoUtils.EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private void notifyOrderChanged() {
+
+        if (mBatchDepth > 0) {
+            mHasPendingChange = true;
+            return;
+        }
+
+        for (int index = 0; index < mListeners.size(); index++) {
+            mListeners.get(index).onOrderChanged();
+        }
+    }
+
+    /**
+     * Moves the slot to its place in the order after its distance changed.
+     *
+     * @return - True if the slot changed position
+     */
+    private boolean reposition(int slot) {
+
+        int original = mRanks[slot];
+        int rank = original;
+        double distance = mDistances[slot];
+        while (rank > 0 && mDistances[mOrder[rank - 1]] > distance) {
+            mOrder[rank] = mOrder[rank - 1];
+            mRanks[mOrder[rank]] = rank;
+            rank--;
+        }
+
+        while (rank < mCount - 1 && mDistances[mOrder[rank + 1]] < distance) {
+            mOrder[rank] = mOrder[rank + 1];
+            mRanks[mOrder[rank]] = rank;
+            rank++;
+        }
+
+        mOrder[rank] = slot;
+        mRanks[slot] = rank;
+        return rank != original;
+    }
+}
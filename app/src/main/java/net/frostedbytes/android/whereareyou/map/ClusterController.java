@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.map;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.frostedbytes.android.whereareyou.map.ClusterEngine.Cluster;
+import net.frostedbytes.android.whereareyou.metrics.LatencyHistogram;
+import net.frostedbytes.android.whereareyou.metrics.Metrics;
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Shows friends on the map as clusters. Positions are collected on the main thread; clusters are computed on a
+ * background thread whenever the points change or the camera goes idle, and only the resulting marker changes are
+ * applied to the map. Only clusters inside the visible region, widened by the prefetch margin, get a marker, so short
+ * pans do not add or remove anything. Must be created and called on the main thread.
+ */
+public class ClusterController implements GoogleMap.OnCameraIdleListener {
+
+    private static final String TAG = BASE_TAG + ClusterController.class.getSimpleName();
+
+    /**
+     * Default margin added on every side of the visible region; as a fraction of its height and width.
+     */
+    public static final float DEFAULT_PREFETCH_MARGIN = 0.25f;
+
+    private static final LatencyHistogram sChangeToMarkers = Metrics.histogram("map.snapshot_to_markers");
+
+    private static class Item {
+
+        double Latitude;
+        double Longitude;
+        String Title;
+    }
+
+    private final BitmapDescriptor mClusterIcon;
+    private final ExecutorService mExecutor;
+    private final GoogleMap mGoogleMap;
+    private final BitmapDescriptor mItemIcon;
+    private final Map<String, Item> mItems;
+    private final Handler mMainHandler;
+    private final MarkerManager mMarkerManager;
+
+    private long mChangedSince; // System.nanoTime() of the oldest change not yet drawn; 0 if none
+    private ClusterEngine mEngine; // only used on the executor thread
+    private int mGeneration;
+    private boolean mItemsChanged;
+    private float mPrefetchMargin;
+
+    private final Runnable mRefresh = this::refresh;
+
+    /**
+     * @param googleMap - Map the markers are drawn on
+     * @param itemIcon - Icon for markers of a single friend
+     */
+    public ClusterController(GoogleMap googleMap, BitmapDescriptor itemIcon) {
+
+        mClusterIcon = BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE);
+        mExecutor = Executors.newSingleThreadExecutor();
+        mGoogleMap = googleMap;
+        mItemIcon = itemIcon;
+        mItems = new HashMap<>();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mMarkerManager = new MarkerManager(googleMap);
+        mPrefetchMargin = DEFAULT_PREFETCH_MARGIN;
+    }
+
+    @Override
+    public void onCameraIdle() {
+
+        LogUtils.debug(TAG, "++onCameraIdle()");
+        refresh();
+    }
+
+    /**
+     * Stops clustering and removes every marker; the instance cannot be used afterwards.
+     */
+    public void release() {
+
+        LogUtils.debug(TAG, "++release()");
+        mMainHandler.removeCallbacks(mRefresh);
+        mExecutor.shutdownNow();
+        mGeneration++;
+        mMarkerManager.clear();
+    }
+
+    /**
+     * @param prefetchMargin - Margin added on every side of the visible region; as a fraction of its height and width
+     */
+    public void setPrefetchMargin(float prefetchMargin) {
+
+        mPrefetchMargin = Math.max(0, prefetchMargin);
+        refresh();
+    }
+
+    /**
+     * Removes the friend from the map.
+     *
+     * @param id - Identifier of the friend
+     */
+    public void remove(String id) {
+
+        if (mItems.remove(id) != null) {
+            onItemsChanged();
+        }
+    }
+
+    /**
+     * Removes every friend whose identifier is not in the collection.
+     *
+     * @param ids - Identifiers of the friends to keep
+     */
+    public void retainAll(Collection<String> ids) {
+
+        Iterator<String> iterator = mItems.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!ids.contains(iterator.next())) {
+                iterator.remove();
+                mItemsChanged = true;
+            }
+        }
+
+        if (mItemsChanged) {
+            onItemsChanged();
+        }
+    }
+
+    /**
+     * Adds the friend to the map, or moves and retitles them.
+     *
+     * @param id - Identifier of the friend
+     * @param latitude - Latitude of the friend; in degrees
+     * @param longitude - Longitude of the friend; in degrees
+     * @param title - Title shown when the friend's marker is selected
+     */
+    public void update(String id, double latitude, double longitude, String title) {
+
+        Item item = mItems.get(id);
+        if (item == null) {
+            item = new Item();
+            mItems.put(id, item);
+        } else if (item.Latitude == latitude && item.Longitude == longitude) {
+            if (title != null && !title.equals(item.Title)) { // no regrouping needed
+                item.Title = title;
+                mMarkerManager.setTitle(id, title);
+            }
+
+            return;
+        }
+
+        item.Latitude = latitude;
+        item.Longitude = longitude;
+        item.Title = title;
+        onItemsChanged();
+    }
+
+    /*
+        Private Support Methods
+     */
+    private void apply(int generation, List<Cluster> clusters) {
+
+        if (generation != mGeneration) { // superseded while computing
+            return;
+        }
+
+        Trace.beginSection("ClusterController.apply");
+        try {
+            Set<String> keys = new HashSet<>();
+            for (Cluster cluster : clusters) {
+                LatLng position = new LatLng(cluster.Latitude, cluster.Longitude);
+                if (cluster.Size == 1) {
+                    Item item = mItems.get(cluster.Key);
+                    if (item == null) {
+                        continue;
+                    }
+
+                    mMarkerManager.update(cluster.Key, position, item.Title, mItemIcon);
+                } else {
+                    mMarkerManager.update(cluster.Key, position, String.format(Locale.ENGLISH, "%d friends", cluster.Size), mClusterIcon);
+                }
+
+                keys.add(cluster.Key);
+            }
+
+            mMarkerManager.retainAll(keys);
+        } finally {
+            Trace.endSection();
+        }
+
+        if (mChangedSince != 0) {
+            sChangeToMarkers.recordNanos(System.nanoTime() - mChangedSince);
+            mChangedSince = 0;
+        }
+    }
+
+    private void onItemsChanged() {
+
+        // a snapshot can carry many changes; regroup once after all of them
+        mItemsChanged = true;
+        if (mChangedSince == 0) {
+            mChangedSince = System.nanoTime();
+        }
+
+        mMainHandler.removeCallbacks(mRefresh);
+        mMainHandler.post(mRefresh);
+    }
+
+    private void refresh() {
+
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+
+        mMainHandler.removeCallbacks(mRefresh);
+        String[] ids = null;
+        double[] latitudes = null;
+        double[] longitudes = null;
+        if (mItemsChanged) {
+            int count = mItems.size();
+            ids = new String[count];
+            latitudes = new double[count];
+            longitudes = new double[count];
+            int index = 0;
+            for (Map.Entry<String, Item> entry : mItems.entrySet()) {
+                ids[index] = entry.getKey();
+                latitudes[index] = entry.getValue().Latitude;
+                longitudes[index] = entry.getValue().Longitude;
+                index++;
+            }
+
+            mItemsChanged = false;
+        }
+
+        int generation = ++mGeneration;
+        float zoom = mGoogleMap.getCameraPosition().zoom;
+        LatLngBounds bounds = mGoogleMap.getProjection().getVisibleRegion().latLngBounds;
+        double latitudeMargin = (bounds.northeast.latitude - bounds.southwest.latitude) * mPrefetchMargin;
+        double south = Math.max(-90, bounds.southwest.latitude - latitudeMargin);
+        double north = Math.min(90, bounds.northeast.latitude + latitudeMargin);
+        double longitudeSpan = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (longitudeSpan < 0) { // crosses the antimeridian
+            longitudeSpan += 360;
+        }
+
+        double west = -180;
+        double east = 180;
+        double longitudeMargin = longitudeSpan * mPrefetchMargin;
+        if (longitudeSpan + 2 * longitudeMargin < 360) {
+            west = wrapLongitude(bounds.southwest.longitude - longitudeMargin);
+            east = wrapLongitude(bounds.northeast.longitude + longitudeMargin);
+        }
+
+        double viewWest = west;
+        double viewEast = east;
+        String[] snapshotIds = ids;
+        double[] snapshotLatitudes = latitudes;
+        double[] snapshotLongitudes = longitudes;
+        mExecutor.execute(() -> {
+
+            if (snapshotIds != null) {
+                mEngine = new ClusterEngine(snapshotIds, snapshotLatitudes, snapshotLongitudes, snapshotIds.length, ClusterEngine.DEFAULT_CELL_SIZE);
+            }
+
+            if (mEngine == null) {
+                return;
+            }
+
+            List<Cluster> clusters;
+            Trace.beginSection("ClusterController.cluster");
+            try {
+                clusters = mEngine.cluster(zoom, south, viewWest, north, viewEast);
+            } finally {
+                Trace.endSection();
+            }
+
+            mMainHandler.post(() -> apply(generation, clusters));
+        });
+    }
+
+    private static double wrapLongitude(double longitude) {
+
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+
+        return longitude > 180 ? longitude - 360 : longitude;
+    }
+}
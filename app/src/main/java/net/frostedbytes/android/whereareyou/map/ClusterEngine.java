@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups points into clusters for a zoom level. Points are projected once onto the Web Mercator plane; for each zoom
+ * the plane is cut into a grid of square cells a fixed number of screen pixels wide and every occupied cell becomes
+ * one cluster. Results are cached per zoom level, so an instance should be built for one set of points and thrown away
+ * when the points change. Not thread safe; confine an instance to one thread.
+ */
+public class ClusterEngine {
+
+    /**
+     * Width of a grid cell; in screen pixels.
+     */
+    public static final int DEFAULT_CELL_SIZE = 96;
+
+    /**
+     * At and above this zoom level every point is shown on its own.
+     */
+    public static final int MAX_CLUSTER_ZOOM = 18;
+
+    private static final int TILE_SIZE = 256;
+
+    public static class Cluster {
+
+        /**
+         * Identifier of the point for single point clusters; otherwise a key for the grid cell at this zoom.
+         */
+        public final String Key;
+
+        /**
+         * Mean latitude of the points; in degrees.
+         */
+        public final double Latitude;
+
+        /**
+         * Mean longitude of the points; in degrees.
+         */
+        public final double Longitude;
+
+        /**
+         * Number of points in the cluster.
+         */
+        public final int Size;
+
+        Cluster(String key, double latitude, double longitude, int size) {
+
+            this.Key = key;
+            this.Latitude = latitude;
+            this.Longitude = longitude;
+            this.Size = size;
+        }
+    }
+
+    private final int mCellSize;
+    private final int mCount;
+    private final String[] mIds;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final double[] mX;
+    private final double[] mY;
+
+    private final Map<Integer, List<Cluster>> mClustersByZoom;
+
+    /**
+     * @param ids - Identifiers of the points
+     * @param latitudes - Latitudes of the points; in degrees
+     * @param longitudes - Longitudes of the points; in degrees
+     * @param count - Number of points in the arrays
+     * @param cellSize - Width of a grid cell; in screen pixels
+     */
+    public ClusterEngine(String[] ids, double[] latitudes, double[] longitudes, int count, int cellSize) {
+
+        mCellSize = cellSize;
+        mCount = count;
+        mIds = ids;
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        mX = new double[count];
+        mY = new double[count];
+        for (int index = 0; index < count; index++) {
+            mX[index] = projectX(longitudes[index]);
+            mY[index] = projectY(latitudes[index]);
+        }
+
+        mClustersByZoom = new HashMap<>();
+    }
+
+    /**
+     * @param zoom - Zoom level of the camera; fractional levels use the grid of the level below
+     * @return - Clusters covering every point
+     */
+    public List<Cluster> cluster(float zoom) {
+
+        int level = Math.max(0, Math.min((int) zoom, MAX_CLUSTER_ZOOM));
+        List<Cluster> clusters = mClustersByZoom.get(level);
+        if (clusters == null) {
+            clusters = Collections.unmodifiableList(level == MAX_CLUSTER_ZOOM ? singles() : grid(level));
+            mClustersByZoom.put(level, clusters);
+        }
+
+        return clusters;
+    }
+
+    /**
+     * Returns the clusters for the zoom level whose position falls inside the bounds; bounds with a west edge greater
+     * than the east edge cross the antimeridian.
+     *
+     * @param zoom - Zoom level of the camera
+     * @param south - Southern edge; in degrees
+     * @param west - Western edge; in degrees
+     * @param north - Northern edge; in degrees
+     * @param east - Eastern edge; in degrees
+     * @return - Clusters inside the bounds
+     */
+    public List<Cluster> cluster(float zoom, double south, double west, double north, double east) {
+
+        List<Cluster> clusters = cluster(zoom);
+        List<Cluster> visible = new ArrayList<>();
+        boolean crossesAntimeridian = west > east;
+        for (Cluster cluster : clusters) {
+            if (cluster.Latitude < south || cluster.Latitude > north) {
+                continue;
+            }
+
+            boolean insideLongitude = crossesAntimeridian ?
+                cluster.Longitude >= west || cluster.Longitude <= east :
+                cluster.Longitude >= west && cluster.Longitude <= east;
+            if (insideLongitude) {
+                visible.add(cluster);
+            }
+        }
+
+        return visible;
+    }
+
+    /**
+     * @return - Number of points
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @param longitude - Longitude; in degrees
+     * @return - Horizontal position on the Web Mercator plane, between 0 and 1
+     */
+    static double projectX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * @param latitude - Latitude; in degrees
+     * @return - Vertical position on the Web Mercator plane, between 0 and 1
+     */
+    static double projectY(double latitude) {
+
+        double sinLatitude = Math.sin(Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, latitude))));
+        return 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+    }
+
+    private List<Cluster> grid(int level) {
+
+        double cellsPerSide = (double) (TILE_SIZE << level) / mCellSize;
+        Map<Long, Integer> cellIndex = new HashMap<>();
+        int[] firstMember = new int[mCount];
+        int[] sizes = new int[mCount];
+        double[] latitudeSums = new double[mCount];
+        double[] longitudeSums = new double[mCount];
+        long[] cells = new long[mCount];
+        int cellCount = 0;
+        for (int index = 0; index < mCount; index++) {
+            long cellX = (long) (mX[index] * cellsPerSide);
+            long cellY = (long) (mY[index] * cellsPerSide);
+            long cell = (cellX << 32) | cellY;
+            Integer slot = cellIndex.get(cell);
+            if (slot == null) {
+                slot = cellCount++;
+                cellIndex.put(cell, slot);
+                firstMember[slot] = index;
+                cells[slot] = cell;
+            }
+
+            sizes[slot]++;
+            latitudeSums[slot] += mLatitudes[index];
+            longitudeSums[slot] += mLongitudes[index];
+        }
+
+        List<Cluster> clusters = new ArrayList<>(cellCount);
+        for (int slot = 0; slot < cellCount; slot++) {
+            if (sizes[slot] == 1) {
+                int member = firstMember[slot];
+                clusters.add(new Cluster(mIds[member], mLatitudes[member], mLongitudes[member], 1));
+            } else {
+                clusters.add(new Cluster(
+                    "cluster/" + level + "/" + (cells[slot] >>> 32) + "/" + (cells[slot] & 0xFFFFFFFFL),
+                    latitudeSums[slot] / sizes[slot],
+                    longitudeSums[slot] / sizes[slot],
+                    sizes[slot]));
+            }
+        }
+
+        return clusters;
+    }
+
+    private List<Cluster> singles() {
+
+        List<Cluster> clusters = new ArrayList<>(mCount);
+        for (int index = 0; index < mCount; index++) {
+            clusters.add(new Cluster(mIds[index], mLatitudes[index], mLongitudes[index], 1));
+        }
+
+        return clusters;
+    }
+}
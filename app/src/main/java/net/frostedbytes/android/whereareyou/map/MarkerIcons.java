@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.map;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.DrawableRes;
+import android.support.v4.content.res.ResourcesCompat;
+import android.util.SparseArray;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+
+import net.frostedbytes.android.whereareyou.utils.LogUtils;
+
+import static net.frostedbytes.android.whereareyou.BaseActivity.BASE_TAG;
+
+/**
+ * Builds marker icons from drawable resources once and hands out the same descriptor for every marker that uses it.
+ */
+public class MarkerIcons {
+
+    private static final String TAG = BASE_TAG + MarkerIcons.class.getSimpleName();
+
+    private static final SparseArray<BitmapDescriptor> sIcons = new SparseArray<>();
+
+    /**
+     * Returns the marker icon for the drawable resource; creating it on first use.
+     *
+     * @param resources - Resources used to load the drawable
+     * @param drawableId - Drawable resource identifier
+     * @return - Shared icon for the drawable, or null if the drawable could not be loaded
+     */
+    public static BitmapDescriptor get(Resources resources, @DrawableRes int drawableId) {
+
+        BitmapDescriptor icon = sIcons.get(drawableId);
+        if (icon == null) {
+            Drawable drawable = ResourcesCompat.getDrawable(resources, drawableId, null);
+            if (drawable == null) {
+                LogUtils.debug(TAG, "Unable to create marker resource.");
+                return null;
+            }
+
+            icon = fromDrawable(drawable);
+            sIcons.put(drawableId, icon);
+        }
+
+        return icon;
+    }
+
+    private static BitmapDescriptor fromDrawable(Drawable drawable) {
+
+        Canvas canvas = new Canvas();
+        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        canvas.setBitmap(bitmap);
+        drawable.setBounds(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        drawable.draw(canvas);
+        return BitmapDescriptorFactory.fromBitmap(bitmap);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.map;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps one marker per friend on the map; existing markers are moved in place and only new or missing friends cause
+ * markers to be added or removed.
+ */
+public class MarkerManager {
+
+    private final GoogleMap mGoogleMap;
+    private final Map<String, Marker> mMarkers;
+
+    public MarkerManager(GoogleMap googleMap) {
+
+        mGoogleMap = googleMap;
+        mMarkers = new HashMap<>();
+    }
+
+    /**
+     * Adds a marker for the identifier, or moves and retitles the existing one.
+     *
+     * @param id - Unique identifier of the friend the marker represents
+     * @param position - Location of the marker
+     * @param title - Title shown when the marker is selected
+     * @param icon - Shared icon for the marker
+     */
+    public void update(String id, LatLng position, String title, BitmapDescriptor icon) {
+
+        Marker marker = mMarkers.get(id);
+        if (marker == null) {
+            marker = mGoogleMap.addMarker(new MarkerOptions()
+                .position(position)
+                .title(title)
+                .icon(icon));
+            mMarkers.put(id, marker);
+        } else {
+            if (!position.equals(marker.getPosition())) {
+                marker.setPosition(position);
+            }
+
+            if (title != null && !title.equals(marker.getTitle())) {
+                marker.setTitle(title);
+            }
+        }
+    }
+
+    /**
+     * Removes the marker for the identifier, if one exists.
+     *
+     * @param id - Unique identifier of the friend the marker represents
+     */
+    public void remove(String id) {
+
+        Marker marker = mMarkers.remove(id);
+        if (marker != null) {
+            marker.remove();
+        }
+    }
+
+    /**
+     * Retitles the marker for the identifier, if one exists.
+     *
+     * @param id - Unique identifier of the marker
+     * @param title - Title shown when the marker is selected
+     */
+    public void setTitle(String id, String title) {
+
+        Marker marker = mMarkers.get(id);
+        if (marker != null && title != null && !title.equals(marker.getTitle())) {
+            marker.setTitle(title);
+        }
+    }
+
+    /**
+     * Removes every marker whose identifier is not in the collection.
+     *
+     * @param ids - Identifiers of the markers to keep
+     */
+    public void retainAll(Collection<String> ids) {
+
+        Iterator<Map.Entry<String, Marker>> iterator = mMarkers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Marker> entry = iterator.next();
+            if (!ids.contains(entry.getKey())) {
+                entry.getValue().remove();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all markers managed by this instance.
+     */
+    public void clear() {
+
+        for (Marker marker : mMarkers.values()) {
+            marker.remove();
+        }
+
+        mMarkers.clear();
+    }
+}
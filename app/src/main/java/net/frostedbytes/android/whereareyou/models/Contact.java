@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.Locale;
+
+/**
+ * One email address of a device contact; a contact with several addresses is represented by several rows.
+ */
+public class Contact {
+
+    /**
+     * Identifier of the contact in the contacts provider.
+     */
+    public long ContactId;
+
+    /**
+     * Display name of the contact.
+     */
+    public String DisplayName;
+
+    /**
+     * Email address for this row.
+     */
+    public String Email;
+
+    /**
+     * Thumbnail photo URI path; may be null.
+     */
+    public String PhotoUri;
+
+    /**
+     * Identifier of the registered user with this email; null if the contact is not known to use the app.
+     */
+    public String UserId;
+
+    public Contact(long contactId, String displayName, String email, String photoUri) {
+
+        this.ContactId = contactId;
+        this.DisplayName = displayName != null ? displayName : "";
+        this.Email = email != null ? email : "";
+        this.PhotoUri = photoUri;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format(Locale.ENGLISH, "%s (%s)", this.DisplayName, this.Email);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.location;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Feeds the filter a walk of fixes one second apart; roughly every other fix moves far enough to be accepted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LocationFilterBenchmark {
+
+    private LocationFilter mFilter;
+    private double mLatitude;
+    private long mTime;
+
+    @Setup
+    public void setup() {
+
+        mFilter = new LocationFilter(50, 60000, 10);
+        mLatitude = 40.7128;
+        mTime = 1546300800000L;
+    }
+
+    @Benchmark
+    public boolean accept() {
+
+        mTime += 1000;
+        mLatitude += 0.00006; // about 6.7 meters
+        return mFilter.accept(mLatitude, -74.0060, 20, mTime, mTime);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the instruments on the hot paths; recording should stay in the tens of nanoseconds and allocate nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+    private Counter mCounter = Metrics.counter("benchmark.counter");
+    private LatencyHistogram mHistogram = Metrics.histogram("benchmark.histogram");
+    private long mNanos = 1;
+
+    @Benchmark
+    public void increment() {
+        mCounter.increment();
+    }
+
+    @Benchmark
+    public void recordNanos() {
+
+        mNanos = mNanos * 31 % 60000000000L; // spread over every bucket
+        mHistogram.recordNanos(mNanos);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return mHistogram.getPercentile(0.99);
+    }
+}
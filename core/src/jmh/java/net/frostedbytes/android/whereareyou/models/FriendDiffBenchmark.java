@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The check FriendListFragment runs before handing a new list to DiffUtil. Unchanged is the common case (a snapshot
+ * that touched no visible field); the changed list differs only in its last row, so the whole list is walked.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FriendDiffBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int mFriendCount;
+
+    private List<Friend> mChanged;
+    private List<Friend> mCopy;
+    private List<Friend> mFriends;
+
+    @Setup
+    public void setup() {
+
+        mFriends = createFriends(mFriendCount);
+        mCopy = createFriends(mFriendCount);
+        mChanged = createFriends(mFriendCount);
+        mChanged.get(mFriendCount - 1).UpdatedDate++;
+    }
+
+    @Benchmark
+    public boolean unchanged() {
+        return FriendDiff.isUnchanged(mFriends, mCopy);
+    }
+
+    @Benchmark
+    public boolean changedLastRow() {
+        return FriendDiff.isUnchanged(mFriends, mChanged);
+    }
+
+    @Benchmark
+    public int compareRowByRow() {
+
+        int same = 0;
+        for (int index = 0; index < mFriendCount; index++) {
+            if (FriendDiff.isSameContent(mFriends.get(index), mChanged.get(index))) {
+                same++;
+            }
+        }
+
+        return same;
+    }
+
+    private static List<Friend> createFriends(int count) {
+
+        List<Friend> friends = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            Friend friend = new Friend();
+            friend.Email = String.format(Locale.ENGLISH, "friend%d@example.com", index);
+            friend.FullName = String.format(Locale.ENGLISH, "Friend Number %d", index);
+            friend.Id = String.format(Locale.ENGLISH, "friend-%08d", index);
+            friend.Status = FriendStatus.ACCEPTED;
+            friend.UpdatedDate = 1546300800000L + index;
+            friends.add(friend);
+        }
+
+        return friends;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Construction of the models and their round trip through ModelCodec.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ModelBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int mFriendCount;
+
+    private List<Friend> mFriends;
+    private byte[] mFriendsBytes;
+    private User mUser;
+    private byte[] mUserBytes;
+
+    @Setup
+    public void setup() {
+
+        mUser = new User();
+        mUser.Email = "someone@example.com";
+        mUser.FullName = "Some One";
+        mUser.Id = "0123456789abcdefghijklmnopqr";
+        mUser.Latitude = 40.7128;
+        mUser.Longitude = -74.0060;
+        mUser.TimeStamp = 1546300800000L;
+        mUserBytes = ModelCodec.encode(mUser);
+
+        mFriends = new ArrayList<>(mFriendCount);
+        for (int index = 0; index < mFriendCount; index++) {
+            Friend friend = new Friend();
+            friend.Email = String.format(Locale.ENGLISH, "friend%d@example.com", index);
+            friend.FullName = String.format(Locale.ENGLISH, "Friend Number %d", index);
+            friend.Id = String.format(Locale.ENGLISH, "friend-%08d", index);
+            friend.Latitude = 40.0 + index / 1000.0;
+            friend.Longitude = -75.0 - index / 1000.0;
+            friend.Status = index % 4;
+            friend.TimeStamp = 1546300800000L + index;
+            mFriends.add(friend);
+        }
+
+        mFriendsBytes = ModelCodec.encode(mFriends);
+    }
+
+    @Benchmark
+    public Friend constructFriendFromUser() {
+        return new Friend(mUser);
+    }
+
+    @Benchmark
+    public byte[] encodeUser() {
+        return ModelCodec.encode(mUser);
+    }
+
+    @Benchmark
+    public User decodeUser() {
+        return ModelCodec.decodeUser(mUserBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeFriends() {
+        return ModelCodec.encode(mFriends);
+    }
+
+    @Benchmark
+    public List<Friend> decodeFriends() {
+        return ModelCodec.decodeFriends(mFriendsBytes);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.utils;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class UtilsBenchmark {
+
+    private String mFriendId = "abcdefghijklmnopqrstuvwxyz01";
+    private long mTimeStamp = 1546300800000L;
+    private String mUserId = "0123456789abcdefghijklmnopqr";
+
+    @Benchmark
+    public String combineFriendPath() {
+        return PathUtils.combine("Users", mUserId, "Friends", mFriendId);
+    }
+
+    @Benchmark
+    public String formatDateForDisplay() {
+        return DateUtils.formatDateForDisplay(mTimeStamp);
+    }
+
+    @Benchmark
+    public double distance() {
+        return GeoUtils.distance(40.7128, -74.0060, 40.7306, -73.9352);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.Invite;
+import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.models.UserLocation;
+
+/**
+ * Converts models to and from the field maps stored in Firestore. Reading goes field by field from getData() instead of
+ * through toObject(), which maps every snapshot reflectively; fields missing from a document keep the model's default,
+ * the same as toObject().
+ */
+public class DocumentMaps {
+
+    public static Map<String, Object> fromFriend(Friend friend) {
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("Email", friend.Email);
+        map.put("FullName", friend.FullName);
+        map.put("Id", friend.Id);
+        map.put("Latitude", friend.Latitude);
+        map.put("Longitude", friend.Longitude);
+        map.put("Status", friend.Status);
+        map.put("TimeStamp", friend.TimeStamp);
+        map.put("UpdatedDate", friend.UpdatedDate);
+        return map;
+    }
+
+    public static Map<String, Object> fromInvite(Invite invite) {
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("CreatedDate", invite.CreatedDate);
+        map.put("RequesterEmail", invite.RequesterEmail);
+        map.put("RequesterFullName", invite.RequesterFullName);
+        map.put("RequesterId", invite.RequesterId);
+        return map;
+    }
+
+    public static Map<String, Object> fromUser(User user) {
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("Email", user.Email);
+        map.put("FullName", user.FullName);
+        map.put("Id", user.Id);
+        map.put("Latitude", user.Latitude);
+        map.put("Longitude", user.Longitude);
+        map.put("TimeStamp", user.TimeStamp);
+        return map;
+    }
+
+    public static Map<String, Object> fromUserLocation(UserLocation location) {
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("Latitude", location.Latitude);
+        map.put("Longitude", location.Longitude);
+        map.put("TimeStamp", location.TimeStamp);
+        map.put("Viewers", new ArrayList<>(location.Viewers));
+        return map;
+    }
+
+    /**
+     * @param id - Document identifier; used as the friend's Id
+     * @param data - Field map of the document, may be null
+     * @return - Friend populated from the document
+     */
+    public static Friend toFriend(String id, Map<String, Object> data) {
+
+        Friend friend = new Friend();
+        if (data != null) {
+            friend.Email = readString(data, "Email", friend.Email);
+            friend.FullName = readString(data, "FullName", friend.FullName);
+            friend.Latitude = readDouble(data, "Latitude", friend.Latitude);
+            friend.Longitude = readDouble(data, "Longitude", friend.Longitude);
+            friend.Status = (int) readLong(data, "Status", friend.Status);
+            friend.TimeStamp = readLong(data, "TimeStamp", friend.TimeStamp);
+            friend.UpdatedDate = readLong(data, "UpdatedDate", friend.UpdatedDate);
+        }
+
+        friend.Id = id;
+        return friend;
+    }
+
+    /**
+     * @param id - Document identifier; used as the requester's Id
+     * @param data - Field map of the document, may be null
+     * @return - Invite populated from the document
+     */
+    public static Invite toInvite(String id, Map<String, Object> data) {
+
+        Invite invite = new Invite();
+        if (data != null) {
+            invite.CreatedDate = readLong(data, "CreatedDate", invite.CreatedDate);
+            invite.RequesterEmail = readString(data, "RequesterEmail", invite.RequesterEmail);
+            invite.RequesterFullName = readString(data, "RequesterFullName", invite.RequesterFullName);
+        }
+
+        invite.RequesterId = id;
+        return invite;
+    }
+
+    /**
+     * @param id - Document identifier; used as the user's Id
+     * @param data - Field map of the document, may be null
+     * @return - User populated from the document
+     */
+    public static User toUser(String id, Map<String, Object> data) {
+
+        User user = new User();
+        if (data != null) {
+            user.Email = readString(data, "Email", user.Email);
+            user.FullName = readString(data, "FullName", user.FullName);
+            user.Latitude = readDouble(data, "Latitude", user.Latitude);
+            user.Longitude = readDouble(data, "Longitude", user.Longitude);
+            user.TimeStamp = readLong(data, "TimeStamp", user.TimeStamp);
+        }
+
+        user.Id = id;
+        return user;
+    }
+
+    /**
+     * @param data - Field map of the document, may be null
+     * @return - Location populated from the document
+     */
+    public static UserLocation toUserLocation(Map<String, Object> data) {
+
+        UserLocation location = new UserLocation();
+        if (data != null) {
+            location.Latitude = readDouble(data, "Latitude", location.Latitude);
+            location.Longitude = readDouble(data, "Longitude", location.Longitude);
+            location.TimeStamp = readLong(data, "TimeStamp", location.TimeStamp);
+            Object viewers = data.get("Viewers");
+            if (viewers instanceof List) {
+                for (Object viewer : (List<?>) viewers) {
+                    location.Viewers.add((String) viewer);
+                }
+            }
+        }
+
+        return location;
+    }
+
+    /*
+        Private Support Methods
+     */
+    private static double readDouble(Map<String, Object> data, String field, double defaultValue) {
+
+        // Firestore hands back whole numbers as Long and the rest as Double
+        Object value = data.get(field);
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    private static long readLong(Map<String, Object> data, String field, long defaultValue) {
+
+        Object value = data.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    private static String readString(Map<String, Object> data, String field, String defaultValue) {
+
+        // a null value, e.g. a display name the sign in provider did not have, reads as missing
+        Object value = data.get(field);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.location;
+
+import net.frostedbytes.android.whereareyou.utils.GeoUtils;
+
+/**
+ * Decides which location fixes are worth publishing. A fix is rejected when it is less accurate than the accuracy
+ * limit, older than the age limit, or closer than the minimum distance to the last accepted fix.
+ */
+public class LocationFilter {
+
+    private final float mMaxAccuracy;
+    private final long mMaxAge;
+    private final float mMinDistance;
+
+    private boolean mHasAccepted;
+    private double mLastLatitude;
+    private double mLastLongitude;
+    private long mLastTime;
+
+    /**
+     * @param maxAccuracy - Largest accepted accuracy radius; in meters
+     * @param maxAge - Oldest accepted fix, relative to now; in milliseconds
+     * @param minDistance - Smallest movement from the last accepted fix that is published; in meters
+     */
+    public LocationFilter(float maxAccuracy, long maxAge, float minDistance) {
+
+        mMaxAccuracy = maxAccuracy;
+        mMaxAge = maxAge;
+        mMinDistance = minDistance;
+    }
+
+    /**
+     * Checks the fix against the filter and, if it passes, records it as the last accepted fix.
+     *
+     * @param latitude - Latitude of the fix; in degrees
+     * @param longitude - Longitude of the fix; in degrees
+     * @param accuracy - Accuracy radius of the fix; in meters
+     * @param time - Time of the fix; in ticks
+     * @param now - Current time; in ticks
+     * @return - True if the fix should be published
+     */
+    public boolean accept(double latitude, double longitude, float accuracy, long time, long now) {
+
+        if (accuracy > mMaxAccuracy || now - time > mMaxAge || time <= mLastTime) {
+            return false;
+        }
+
+        if (mHasAccepted && GeoUtils.distance(mLastLatitude, mLastLongitude, latitude, longitude) < mMinDistance) {
+            return false;
+        }
+
+        mHasAccepted = true;
+        mLastLatitude = latitude;
+        mLastLongitude = longitude;
+        mLastTime = time;
+        return true;
+    }
+
+    /**
+     * Forgets the last accepted fix so the next acceptable fix is published regardless of distance.
+     */
+    public void reset() {
+
+        mHasAccepted = false;
+        mLastLatitude = 0;
+        mLastLongitude = 0;
+        mLastTime = 0;
+    }
+}
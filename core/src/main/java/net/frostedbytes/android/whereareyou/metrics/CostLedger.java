@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Documents read and written in Firestore, per feature. Session totals are kept as counters in {@link Metrics};
+ * hourly totals are kept here, in fixed clock-hour windows, and checked against soft budgets. A budget never blocks a
+ * call; callers doing work that can wait ask {@link #isOverBudget(String)} first and defer it.
+ *
+ * The ledger itself lives in memory; callers persist {@link #getHourState()} and hand it back to
+ * {@link #restoreHour(String)} so a restarted process keeps counting the same hour.
+ */
+public class CostLedger {
+
+    /**
+     * Pseudo-feature whose budget applies to the sum of every feature.
+     */
+    public static final String TOTAL = "total";
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static class Usage {
+
+        final String Name;
+        final Counter Reads;
+        final Counter Writes;
+
+        long HourReads;
+        long HourWrites;
+        long ReadBudget;
+        long WriteBudget;
+
+        Usage(String name) {
+
+            Name = name;
+            Reads = Metrics.counter("firestore." + name + ".reads");
+            Writes = Metrics.counter("firestore." + name + ".writes");
+        }
+
+        boolean isOverBudget() {
+            return (ReadBudget > 0 && HourReads > ReadBudget) || (WriteBudget > 0 && HourWrites > WriteBudget);
+        }
+    }
+
+    private static final Map<String, Usage> sUsages = new LinkedHashMap<>();
+
+    private static long sHourStart;
+
+    /**
+     * @param feature - Feature label, or TOTAL for the sum of every feature
+     * @param readsPerHour - Documents the feature may read per clock hour; 0 for no budget
+     * @param writesPerHour - Documents the feature may write per clock hour; 0 for no budget
+     */
+    public static synchronized void setBudget(String feature, long readsPerHour, long writesPerHour) {
+
+        Usage usage = usage(feature);
+        usage.ReadBudget = readsPerHour;
+        usage.WriteBudget = writesPerHour;
+    }
+
+    /**
+     * @param feature - Feature label
+     * @param documents - Documents billed as read
+     */
+    public static synchronized void read(String feature, long documents) {
+
+        rollHour();
+        add(usage(feature), documents, 0);
+        add(usage(TOTAL), documents, 0);
+    }
+
+    /**
+     * @param feature - Feature label
+     * @param documents - Documents billed as written
+     */
+    public static synchronized void write(String feature, long documents) {
+
+        rollHour();
+        add(usage(feature), 0, documents);
+        add(usage(TOTAL), 0, documents);
+    }
+
+    /**
+     * @param feature - Feature label
+     * @return - True if the feature, or every feature together, has gone past a budget in the current hour
+     */
+    public static synchronized boolean isOverBudget(String feature) {
+
+        rollHour();
+        return usage(feature).isOverBudget() || usage(TOTAL).isOverBudget();
+    }
+
+    /**
+     * @return - Hourly totals, for restoreHour(String); one line for the start of the hour, then one per feature
+     */
+    public static synchronized String getHourState() {
+
+        rollHour();
+        StringBuilder builder = new StringBuilder();
+        builder.append(sHourStart);
+        for (Usage usage : sUsages.values()) {
+            builder.append(String.format(Locale.ENGLISH, "%n%s %d %d", usage.Name, usage.HourReads, usage.HourWrites));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Adds hourly totals saved by an earlier process; totals saved in a previous hour, or that cannot be read, are
+     * ignored.
+     *
+     * @param state - Output of getHourState(), or null
+     */
+    public static synchronized void restoreHour(String state) {
+
+        if (state == null || state.isEmpty()) {
+            return;
+        }
+
+        rollHour();
+        String[] lines = state.split("\\R");
+        try {
+            if (Long.parseLong(lines[0].trim()) != sHourStart) {
+                return;
+            }
+
+            for (int index = 1; index < lines.length; index++) {
+                String[] fields = lines[index].trim().split(" ");
+                if (fields.length == 3) {
+                    Usage usage = usage(fields[0]);
+                    usage.HourReads += Long.parseLong(fields[1]);
+                    usage.HourWrites += Long.parseLong(fields[2]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // saved by a different version; start the hour over
+        }
+    }
+
+    /**
+     * Zeroes the hourly totals; budgets are kept. Session totals are reset through Metrics.reset().
+     */
+    public static synchronized void reset() {
+
+        for (Usage usage : sUsages.values()) {
+            usage.HourReads = 0;
+            usage.HourWrites = 0;
+        }
+    }
+
+    /**
+     * @return - Time until the hourly totals start over; in ticks
+     */
+    public static synchronized long getMillisUntilReset() {
+
+        rollHour();
+        return sHourStart + HOUR - System.currentTimeMillis();
+    }
+
+    /**
+     * @return - Hourly and session totals with budgets, one feature per line; the total comes first
+     */
+    public static synchronized String toText() {
+
+        rollHour();
+        List<Usage> usages = new ArrayList<>();
+        usages.add(usage(TOTAL));
+        for (Usage usage : sUsages.values()) {
+            if (!usage.Name.equals(TOTAL)) {
+                usages.add(usage);
+            }
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(
+            Locale.ENGLISH,
+            "Firestore documents this hour (resets in %d min)%n",
+            TimeUnit.MILLISECONDS.toMinutes(sHourStart + HOUR - System.currentTimeMillis())));
+        for (Usage usage : usages) {
+            builder.append(String.format(
+                Locale.ENGLISH,
+                "%s%s%n  reads %d/%s  writes %d/%s  session %d/%d%n",
+                usage.Name,
+                usage.isOverBudget() ? " (over budget)" : "",
+                usage.HourReads,
+                usage.ReadBudget > 0 ? String.valueOf(usage.ReadBudget) : "-",
+                usage.HourWrites,
+                usage.WriteBudget > 0 ? String.valueOf(usage.WriteBudget) : "-",
+                usage.Reads.getValue(),
+                usage.Writes.getValue()));
+        }
+
+        return builder.toString();
+    }
+
+    /*
+        Private Support Methods
+     */
+    private static void add(Usage usage, long reads, long writes) {
+
+        usage.Reads.add(reads);
+        usage.Writes.add(writes);
+        usage.HourReads += reads;
+        usage.HourWrites += writes;
+    }
+
+    private static void rollHour() {
+
+        long now = System.currentTimeMillis();
+        if (now - sHourStart >= HOUR) {
+            sHourStart = now - now % HOUR;
+            for (Usage usage : sUsages.values()) {
+                usage.HourReads = 0;
+                usage.HourWrites = 0;
+            }
+        }
+    }
+
+    private static Usage usage(String feature) {
+
+        Usage usage = sUsages.get(feature);
+        if (usage == null) {
+            usage = new Usage(feature);
+            sUsages.put(feature, usage);
+        }
+
+        return usage;
+    }
+}
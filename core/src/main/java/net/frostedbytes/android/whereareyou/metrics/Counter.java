@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic count of events; safe to update from any thread without allocating.
+ */
+public class Counter {
+
+    private final String mName;
+    private final AtomicLong mValue;
+
+    Counter(String name) {
+
+        mName = name;
+        mValue = new AtomicLong();
+    }
+
+    public void add(long delta) {
+        mValue.addAndGet(delta);
+    }
+
+    public void increment() {
+        mValue.incrementAndGet();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public long getValue() {
+        return mValue.get();
+    }
+
+    void reset() {
+        mValue.set(0);
+    }
+}
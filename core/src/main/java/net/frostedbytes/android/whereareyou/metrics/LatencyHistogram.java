@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution over fixed buckets on a 1-2-5 scale from 100 microseconds to a minute, plus one for anything
+ * slower. Recording is a bucket search and a few atomic increments, with no allocation and no locks, so it can sit on
+ * the main thread's hot paths; percentiles are read back as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bound of each bucket; in microseconds.
+     */
+    static final long[] BOUNDS = {
+        100, 200, 500,
+        1000, 2000, 5000,
+        10000, 20000, 50000,
+        100000, 200000, 500000,
+        1000000, 2000000, 5000000,
+        10000000, 20000000, 60000000
+    };
+
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mCount;
+    private final AtomicLong mMax;
+    private final String mName;
+    private final AtomicLong mSum;
+
+    LatencyHistogram(String name) {
+
+        mBuckets = new AtomicLongArray(BOUNDS.length + 1);
+        mCount = new AtomicLong();
+        mMax = new AtomicLong();
+        mName = name;
+        mSum = new AtomicLong();
+    }
+
+    /**
+     * @param nanos - Elapsed time; in nanoseconds, e.g. the difference of two System.nanoTime() values
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    /**
+     * @param micros - Elapsed time; in microseconds; negative values are counted as zero
+     */
+    public void recordMicros(long micros) {
+
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        int bucket = Arrays.binarySearch(BOUNDS, micros);
+        if (bucket < 0) {
+            bucket = -bucket - 1; // insertion point; BOUNDS.length for the overflow bucket
+        }
+
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return - Largest recorded value; in microseconds
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @return - Mean of the recorded values; in microseconds, 0 if nothing was recorded
+     */
+    public long getMean() {
+
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @param percentile - Fraction of values at or below the result, e.g. 0.99
+     * @return - Upper bound of the bucket holding the percentile, capped at the largest value; in microseconds
+     */
+    public long getPercentile(double percentile) {
+
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+            seen += mBuckets.get(bucket);
+            if (seen >= rank) {
+                return Math.min(BOUNDS[bucket], mMax.get());
+            }
+        }
+
+        return mMax.get();
+    }
+
+    /**
+     * @return - Count of each bucket; the last entry counts values above the largest bound
+     */
+    public long[] getBuckets() {
+
+        long[] buckets = new long[mBuckets.length()];
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            buckets[bucket] = mBuckets.get(bucket);
+        }
+
+        return buckets;
+    }
+
+    void reset() {
+
+        for (int bucket = 0; bucket < mBuckets.length(); bucket++) {
+            mBuckets.set(bucket, 0);
+        }
+
+        mCount.set(0);
+        mMax.set(0);
+        mSum.set(0);
+    }
+}
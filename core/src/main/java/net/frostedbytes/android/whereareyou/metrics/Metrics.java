@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide registry of counters and latency histograms. Instruments are looked up once, typically into a static
+ * final field, and updated from then on without allocating; the registry renders them as text for the debug screen
+ * and as JSON for export.
+ */
+public class Metrics {
+
+    private static final Map<String, Counter> sCounters = new LinkedHashMap<>();
+    private static final Map<String, LatencyHistogram> sHistograms = new LinkedHashMap<>();
+
+    /**
+     * @param name - Name of the counter, e.g. location.fixes
+     * @return - Counter with the name, created the first time it is asked for
+     */
+    public static synchronized Counter counter(String name) {
+
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            sCounters.put(name, counter);
+        }
+
+        return counter;
+    }
+
+    /**
+     * @param name - Name of the histogram, e.g. location.fix_to_ack
+     * @return - Histogram with the name, created the first time it is asked for
+     */
+    public static synchronized LatencyHistogram histogram(String name) {
+
+        LatencyHistogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(name);
+            sHistograms.put(name, histogram);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * @return - Every counter, in the order they were created
+     */
+    public static synchronized List<Counter> getCounters() {
+        return new ArrayList<>(sCounters.values());
+    }
+
+    /**
+     * @return - Every histogram, in the order they were created
+     */
+    public static synchronized List<LatencyHistogram> getHistograms() {
+        return new ArrayList<>(sHistograms.values());
+    }
+
+    /**
+     * Zeroes every instrument; the instruments themselves stay registered.
+     */
+    public static synchronized void reset() {
+
+        for (Counter counter : sCounters.values()) {
+            counter.reset();
+        }
+
+        for (LatencyHistogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return - Counters and histogram percentiles, one per line; latencies in milliseconds
+     */
+    public static String toText() {
+
+        StringBuilder builder = new StringBuilder();
+        for (LatencyHistogram histogram : getHistograms()) {
+            builder.append(histogram.getName()).append('\n');
+            builder.append(String.format(
+                Locale.ENGLISH,
+                "  n=%d  p50=%.1f  p90=%.1f  p99=%.1f  max=%.1f ms%n",
+                histogram.getCount(),
+                histogram.getPercentile(0.50) / 1000.0,
+                histogram.getPercentile(0.90) / 1000.0,
+                histogram.getPercentile(0.99) / 1000.0,
+                histogram.getMax() / 1000.0));
+        }
+
+        for (Counter counter : getCounters()) {
+            builder.append(String.format(Locale.ENGLISH, "%s = %d%n", counter.getName(), counter.getValue()));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @param timeStamp - Time of the export; in ticks
+     * @return - Every instrument as a JSON object; latencies in microseconds, with the bucket bounds they refer to
+     */
+    public static String toJson(long timeStamp) {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n  \"timeStamp\": ").append(timeStamp).append(",\n  \"counters\": {");
+        String separator = "\n";
+        for (Counter counter : getCounters()) {
+            builder.append(separator).append("    ").append(quote(counter.getName())).append(": ").append(counter.getValue());
+            separator = ",\n";
+        }
+
+        builder.append("\n  },\n  \"bucketBoundsMicros\": [");
+        for (int index = 0; index < LatencyHistogram.BOUNDS.length; index++) {
+            builder.append(index == 0 ? "" : ", ").append(LatencyHistogram.BOUNDS[index]);
+        }
+
+        builder.append("],\n  \"histograms\": {");
+        separator = "\n";
+        for (LatencyHistogram histogram : getHistograms()) {
+            builder.append(separator).append("    ").append(quote(histogram.getName())).append(": {");
+            builder.append(String.format(
+                Locale.ENGLISH,
+                "\"count\": %d, \"meanMicros\": %d, \"p50Micros\": %d, \"p90Micros\": %d, \"p99Micros\": %d, \"maxMicros\": %d, ",
+                histogram.getCount(),
+                histogram.getMean(),
+                histogram.getPercentile(0.50),
+                histogram.getPercentile(0.90),
+                histogram.getPercentile(0.99),
+                histogram.getMax()));
+            builder.append("\"buckets\": [");
+            long[] buckets = histogram.getBuckets();
+            for (int index = 0; index < buckets.length; index++) {
+                builder.append(index == 0 ? "" : ", ").append(buckets[index]);
+            }
+
+            builder.append("]}");
+            separator = ",\n";
+        }
+
+        builder.append("\n  }\n}\n");
+        return builder.toString();
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -16,15 +16,12 @@
 
 package net.frostedbytes.android.whereareyou.models;
 
-import com.google.firebase.firestore.Exclude;
-import java.io.Serializable;
-import java.util.Calendar;
 import java.util.Locale;
-import net.frostedbytes.android.whereareyou.BaseActivity;
 
-public class Friend implements Serializable {
+import net.frostedbytes.android.whereareyou.utils.EmailUtils;
+
+public class Friend {
 
-    @Exclude
     public static final String FRIENDS_ROOT = "Friends";
 
     /**
@@ -55,7 +52,6 @@ public class Friend implements Serializable {
     /**
      * User's photo URI path.
      */
-    @Exclude
     public String PhotoUri;
 
     /**
@@ -77,13 +73,29 @@ public class Friend implements Serializable {
 
         this.Email = "";
         this.FullName = "";
-        this.Id = BaseActivity.DEFAULT_ID;
+        this.Id = User.DEFAULT_ID;
         this.Latitude = 0;
         this.Longitude = 0;
         this.PhotoUri = "";
         this.TimeStamp = 0;
         this.Status = 0;
-        this.UpdatedDate = Calendar.getInstance().getTimeInMillis();
+        this.UpdatedDate = System.currentTimeMillis();
+    }
+
+    /**
+     * @param friend - Friend to copy; every field is copied
+     */
+    public Friend(Friend friend) {
+
+        this.Email = friend.Email;
+        this.FullName = friend.FullName;
+        this.Id = friend.Id;
+        this.Latitude = friend.Latitude;
+        this.Longitude = friend.Longitude;
+        this.PhotoUri = friend.PhotoUri;
+        this.Status = friend.Status;
+        this.TimeStamp = friend.TimeStamp;
+        this.UpdatedDate = friend.UpdatedDate;
     }
 
     public Friend(User user) {
@@ -97,10 +109,12 @@ public class Friend implements Serializable {
         this.TimeStamp = user.TimeStamp;
     }
 
-    @Exclude
+    /**
+     * @return - Normalized email address with illegal characters replaced by '_'; matches User.getEmailAsKey()
+     */
     public String getEmailAsKey() {
 
-        return this.Email.replace('@', '_').replace('.', '_');
+        return EmailUtils.normalize(this.Email).replace('@', '_').replace('.', '_');
     }
 
     @Override
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Comparison rules for friend rows, shared by the list adapter's DiffUtil callback, and a keyed check that lets the
+ * adapter skip DiffUtil's O(N * D) pass when a new list would not change anything on screen.
+ */
+public class FriendDiff {
+
+    /**
+     * @param oldFriend - Friend from the previous list
+     * @param newFriend - Friend from the new list
+     * @return - True if both represent the same friendship
+     */
+    public static boolean isSameItem(Friend oldFriend, Friend newFriend) {
+        return oldFriend.Id.equals(newFriend.Id);
+    }
+
+    /**
+     * @param oldFriend - Friend from the previous list
+     * @param newFriend - Friend from the new list
+     * @return - True if the row's name, email and status are unchanged
+     */
+    public static boolean isSameDisplay(Friend oldFriend, Friend newFriend) {
+
+        return oldFriend.Status == newFriend.Status &&
+            Objects.equals(oldFriend.FullName, newFriend.FullName) &&
+            Objects.equals(oldFriend.Email, newFriend.Email);
+    }
+
+    /**
+     * @param oldFriend - Friend from the previous list
+     * @param newFriend - Friend from the new list
+     * @return - True if nothing shown in the row changed
+     */
+    public static boolean isSameContent(Friend oldFriend, Friend newFriend) {
+        return isSameDisplay(oldFriend, newFriend) && oldFriend.UpdatedDate == newFriend.UpdatedDate;
+    }
+
+    /**
+     * Compares the lists position by position; any difference in order, membership or content counts as a change.
+     *
+     * @param oldFriends - Previous list
+     * @param newFriends - New list
+     * @return - True if the new list would render exactly like the previous one
+     */
+    public static boolean isUnchanged(List<Friend> oldFriends, List<Friend> newFriends) {
+
+        if (oldFriends.size() != newFriends.size()) {
+            return false;
+        }
+
+        for (int index = 0; index < oldFriends.size(); index++) {
+            Friend oldFriend = oldFriends.get(index);
+            Friend newFriend = newFriends.get(index);
+            if (!isSameItem(oldFriend, newFriend) || !isSameContent(oldFriend, newFriend)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+/**
+ * Values of Friend.Status and the rules for moving between them. Each friendship is stored twice, once in each user's
+ * friend list, and the two documents carry complementary statuses: a request is waiting for the sender and pending
+ * for the recipient, and becomes accepted on both sides.
+ */
+public class FriendStatus {
+
+    /**
+     * Request received; this user has not answered it.
+     */
+    public static final int PENDING = 0;
+
+    /**
+     * Request sent; the other user has not answered it.
+     */
+    public static final int WAITING = 1;
+
+    public static final int ACCEPTED = 2;
+    public static final int REJECTED = 3;
+
+    /**
+     * @param status - Status of the friend in this user's list
+     * @return - Status this user has in the friend's list
+     */
+    public static int counterpart(int status) {
+
+        switch (status) {
+            case PENDING:
+                return WAITING;
+            case WAITING:
+                return PENDING;
+            default:
+                return status;
+        }
+    }
+
+    /**
+     * @param status - Status of the friend in this user's list
+     * @return - True if this user can accept (or decline) the friendship
+     */
+    public static boolean canAnswer(int status) {
+        return status == PENDING;
+    }
+
+    /**
+     * @param status - Status of the friend in this user's list
+     * @return - True if locations are shared in both directions
+     */
+    public static boolean isSharing(int status) {
+        return status == ACCEPTED;
+    }
+}
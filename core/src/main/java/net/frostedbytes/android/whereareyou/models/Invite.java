@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.Locale;
+
+/**
+ * Sharing request addressed to an email address that is not yet registered. Stored under
+ * Invites/{hash of email}/Requesters/{requester id} so the invited user can find every request with one query.
+ */
+public class Invite {
+
+    public static final String INVITES_ROOT = "Invites";
+    public static final String REQUESTERS_ROOT = "Requesters";
+
+    /**
+     * Timestamp of when the invite was created; in ticks.
+     */
+    public long CreatedDate;
+
+    /**
+     * Email of user that sent the invite.
+     */
+    public String RequesterEmail;
+
+    /**
+     * Display name of user that sent the invite.
+     */
+    public String RequesterFullName;
+
+    /**
+     * Unique identifier of user that sent the invite.
+     */
+    public String RequesterId;
+
+    public Invite() {
+
+        this.CreatedDate = System.currentTimeMillis();
+        this.RequesterEmail = "";
+        this.RequesterFullName = "";
+        this.RequesterId = User.DEFAULT_ID;
+    }
+
+    public Invite(User requester) {
+        this();
+
+        this.RequesterEmail = requester.Email;
+        this.RequesterFullName = requester.FullName;
+        this.RequesterId = requester.Id;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format(Locale.ENGLISH, "%s (%s)", this.RequesterFullName, this.RequesterEmail);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary form of the models, used when they have to outlive the process (e.g. saved instance state). Fields
+ * are written in a fixed order behind a version byte; no class metadata or reflection is involved.
+ */
+public class ModelCodec {
+
+    private static final int VERSION = 1;
+
+    public static byte[] encode(Friend friend) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(VERSION);
+            writeFriend(output, friend);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode friend.", e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encode(List<Friend> friends) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + friends.size() * 96);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(VERSION);
+            output.writeInt(friends.size());
+            for (Friend friend : friends) {
+                writeFriend(output, friend);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode friends.", e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encode(User user) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(VERSION);
+            writeString(output, user.Email);
+            output.writeInt(user.Frequency);
+            writeString(output, user.FullName);
+            writeString(output, user.Id);
+            output.writeDouble(user.Latitude);
+            output.writeDouble(user.Longitude);
+            writeString(output, user.PhotoUri);
+            output.writeLong(user.TimeStamp);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode user.", e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes - Output of encode(Friend)
+     * @return - Decoded friend
+     * @throws IllegalArgumentException - if the bytes are not a friend written by this version
+     */
+    public static Friend decodeFriend(byte[] bytes) {
+
+        try (DataInputStream input = open(bytes)) {
+            return readFriend(input);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to decode friend.", e);
+        }
+    }
+
+    /**
+     * @param bytes - Output of encode(List)
+     * @return - Decoded friends, in their original order
+     * @throws IllegalArgumentException - if the bytes are not a friend list written by this version
+     */
+    public static List<Friend> decodeFriends(byte[] bytes) {
+
+        try (DataInputStream input = open(bytes)) {
+            int count = input.readInt();
+            List<Friend> friends = new ArrayList<>(count);
+            for (int index = 0; index < count; index++) {
+                friends.add(readFriend(input));
+            }
+
+            return friends;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to decode friends.", e);
+        }
+    }
+
+    /**
+     * @param bytes - Output of encode(User)
+     * @return - Decoded user
+     * @throws IllegalArgumentException - if the bytes are not a user written by this version
+     */
+    public static User decodeUser(byte[] bytes) {
+
+        try (DataInputStream input = open(bytes)) {
+            User user = new User();
+            user.Email = readString(input);
+            user.Frequency = input.readInt();
+            user.FullName = readString(input);
+            user.Id = readString(input);
+            user.Latitude = input.readDouble();
+            user.Longitude = input.readDouble();
+            user.PhotoUri = readString(input);
+            user.TimeStamp = input.readLong();
+            return user;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to decode user.", e);
+        }
+    }
+
+    private static DataInputStream open(byte[] bytes) throws IOException {
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+
+        return input;
+    }
+
+    private static Friend readFriend(DataInputStream input) throws IOException {
+
+        Friend friend = new Friend();
+        friend.Email = readString(input);
+        friend.FullName = readString(input);
+        friend.Id = readString(input);
+        friend.Latitude = input.readDouble();
+        friend.Longitude = input.readDouble();
+        friend.PhotoUri = readString(input);
+        friend.Status = input.readInt();
+        friend.TimeStamp = input.readLong();
+        friend.UpdatedDate = input.readLong();
+        return friend;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeFriend(DataOutputStream output, Friend friend) throws IOException {
+
+        writeString(output, friend.Email);
+        writeString(output, friend.FullName);
+        writeString(output, friend.Id);
+        output.writeDouble(friend.Latitude);
+        output.writeDouble(friend.Longitude);
+        writeString(output, friend.PhotoUri);
+        output.writeInt(friend.Status);
+        output.writeLong(friend.TimeStamp);
+        output.writeLong(friend.UpdatedDate);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+}
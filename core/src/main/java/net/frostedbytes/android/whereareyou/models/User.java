@@ -16,16 +16,22 @@
 
 package net.frostedbytes.android.whereareyou.models;
 
-import com.google.firebase.firestore.Exclude;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
-import net.frostedbytes.android.whereareyou.BaseActivity;
 
-public class User implements Serializable {
+import net.frostedbytes.android.whereareyou.utils.EmailUtils;
 
-    @Exclude
+/**
+ * Signed in user and registered users found through the directory. Mapped to and from Firestore by DocumentMaps, so
+ * fields that are not stored (e.g. Frequency, PhotoUri) need no annotations.
+ */
+public class User {
+
+    /**
+     * Identifier given to models that have not been assigned one yet.
+     */
+    public static final String DEFAULT_ID = "0000000000000000000000000000";
+
+    public static final String DIRECTORY_ROOT = "Directory";
     public static final String USERS_ROOT = "Users";
 
     /**
@@ -36,14 +42,8 @@ public class User implements Serializable {
     /**
      * Number of minutes between location uploads.
      */
-    @Exclude
     public int Frequency;
 
-    /**
-     * List of friends.
-     */
-    public List<Friend> Friends;
-
     /**
      * Display name for friend.
      */
@@ -67,7 +67,6 @@ public class User implements Serializable {
     /**
      * User's photo URI path.
      */
-    @Exclude
     public String PhotoUri;
 
     /**
@@ -79,9 +78,8 @@ public class User implements Serializable {
 
         this.Email = "";
         this.Frequency = 1;
-        this.Friends = new ArrayList<>();
         this.FullName = "";
-        this.Id = BaseActivity.DEFAULT_ID;
+        this.Id = DEFAULT_ID;
         this.PhotoUri = "";
         this.Latitude = 0;
         this.Longitude = 0;
@@ -95,13 +93,13 @@ public class User implements Serializable {
     }
 
     /**
-     * Replaces illegal characters in the email address with '_' so it can be used as a key.
+     * Replaces illegal characters in the normalized email address with '_' so it can be used as a key; the same address
+     * gives the same key whatever its case.
      *
      * @return The email address where illegal characters have been replaced with '_'
      */
-    @Exclude
     public String getEmailAsKey() {
 
-        return this.Email.replace('@', '_').replace('.', '_');
+        return EmailUtils.normalize(this.Email).replace('@', '_').replace('.', '_');
     }
 }
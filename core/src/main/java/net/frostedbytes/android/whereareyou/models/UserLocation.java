@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Most recent location fix for a user; stored under Locations/{user id} and readable by the users listed in Viewers.
+ */
+public class UserLocation {
+
+    public static final String LOCATIONS_ROOT = "Locations";
+
+    /**
+     * The latitude value for user location.
+     */
+    public double Latitude;
+
+    /**
+     * The longitude value for user location.
+     */
+    public double Longitude;
+
+    /**
+     * The number of ticks representing when user location was created/updated.
+     */
+    public long TimeStamp;
+
+    /**
+     * Unique identifiers of accepted friends allowed to see this location.
+     */
+    public List<String> Viewers;
+
+    public UserLocation() {
+
+        this.Latitude = 0;
+        this.Longitude = 0;
+        this.TimeStamp = 0;
+        this.Viewers = new ArrayList<>();
+    }
+
+    public UserLocation(User user) {
+        this();
+
+        this.Latitude = user.Latitude;
+        this.Longitude = user.Longitude;
+        this.TimeStamp = user.TimeStamp;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format(Locale.ENGLISH, "%f, %f", this.Latitude, this.Longitude);
+    }
+}
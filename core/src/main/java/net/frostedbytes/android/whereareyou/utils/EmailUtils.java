@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+public class EmailUtils {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Returns the email address in the form used for comparisons and hashing.
+   *
+   * @param email - Email address as entered by the user or contact
+   * @return - Email address with surrounding whitespace removed, in lower case
+   */
+  public static String normalize(String email) {
+
+    return email == null ? "" : email.trim().toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Returns a SHA-256 hash of the normalized email address; safe to use as a document key.
+   *
+   * @param email - Email address to hash
+   * @return - Lower case hex string of the hash
+   */
+  public static String hash(String email) {
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available.", e);
+    }
+
+    byte[] bytes = digest.digest(normalize(email).getBytes(StandardCharsets.UTF_8));
+    char[] hex = new char[bytes.length * 2];
+    for (int index = 0; index < bytes.length; index++) {
+      hex[index * 2] = HEX_DIGITS[(bytes[index] >> 4) & 0x0F];
+      hex[index * 2 + 1] = HEX_DIGITS[bytes[index] & 0x0F];
+    }
+
+    return new String(hex);
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.utils;
+
+public class GeoUtils {
+
+  /**
+   * Mean radius of the earth; in meters.
+   */
+  public static final double EARTH_RADIUS = 6371008.8;
+
+  /**
+   * Returns the great-circle distance between two coordinates using the haversine formula.
+   *
+   * @param latitude1 - Latitude of the first coordinate; in degrees
+   * @param longitude1 - Longitude of the first coordinate; in degrees
+   * @param latitude2 - Latitude of the second coordinate; in degrees
+   * @param longitude2 - Longitude of the second coordinate; in degrees
+   * @return - Distance between the coordinates; in meters
+   */
+  public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+
+    double deltaLatitude = Math.toRadians(latitude2 - latitude1);
+    double deltaLongitude = Math.toRadians(longitude2 - longitude1);
+    double sinLatitude = Math.sin(deltaLatitude / 2);
+    double sinLongitude = Math.sin(deltaLongitude / 2);
+    double a = sinLatitude * sinLatitude +
+      Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+    return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+  }
+}
@@ -16,22 +16,21 @@
 
 package net.frostedbytes.android.whereareyou.utils;
 
-import java.util.Locale;
-
 public class PathUtils {
 
+  /**
+   * Joins the segments into a path; each segment is preceded by a separator.
+   *
+   * @param paths - Segments to join; written using their string form
+   * @return - Path in the form /segment/segment
+   */
   public static String combine(Object... paths) {
 
-    String finalPath = "";
+    StringBuilder builder = new StringBuilder();
     for (Object path : paths) {
-      String format = "%s/%s";
-      if (path.getClass() == Integer.class) {
-        format = "%s/%d";
-      }
-
-      finalPath = String.format(Locale.ENGLISH, format, finalPath, path);
+      builder.append('/').append(path);
     }
 
-    return finalPath;
+    return builder.toString();
   }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.frostedbytes.android.whereareyou.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DocumentMapsTest {
+
+    @Test
+    public void friendFields() {
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("Email", "alice@example.com");
+        data.put("FullName", "Alice");
+        data.put("Latitude", 40.5);
+        data.put("Longitude", -75L); // whole numbers come back as Long
+        data.put("Status", (long) FriendStatus.ACCEPTED);
+        data.put("TimeStamp", 1540000000000L);
+        data.put("UpdatedDate", 1540000001000L);
+
+        Friend friend = DocumentMaps.toFriend("alice", data);
+        assertEquals("alice", friend.Id);
+        assertEquals("alice@example.com", friend.Email);
+        assertEquals("Alice", friend.FullName);
+        assertEquals(40.5, friend.Latitude, 0);
+        assertEquals(-75, friend.Longitude, 0);
+        assertEquals(FriendStatus.ACCEPTED, friend.Status);
+        assertEquals(1540000000000L, friend.TimeStamp);
+        assertEquals(1540000001000L, friend.UpdatedDate);
+    }
+
+    @Test
+    public void nullStringReadsAsDefault() {
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("Email", null);
+        data.put("FullName", null);
+
+        Friend friend = DocumentMaps.toFriend("alice", data);
+        assertEquals(new Friend().Email, friend.Email);
+        assertEquals(new Friend().FullName, friend.FullName);
+    }
+}
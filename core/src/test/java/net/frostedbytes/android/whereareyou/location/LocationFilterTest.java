@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.frostedbytes.android.whereareyou.location;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationFilterTest {
+
+    private static final double LATITUDE = 40.7128;
+    private static final double LONGITUDE = -74.0060;
+    private static final long NOW = 1540000000000L;
+
+    private LocationFilter mFilter;
+
+    @Before
+    public void setUp() {
+        mFilter = new LocationFilter(50, 60000, 10);
+    }
+
+    @Test
+    public void firstFixIsAccepted() {
+        assertTrue(mFilter.accept(LATITUDE, LONGITUDE, 20, NOW, NOW));
+    }
+
+    @Test
+    public void inaccurateFixIsRejected() {
+        assertFalse(mFilter.accept(LATITUDE, LONGITUDE, 51, NOW, NOW));
+    }
+
+    @Test
+    public void staleFixIsRejected() {
+        assertFalse(mFilter.accept(LATITUDE, LONGITUDE, 20, NOW - 60001, NOW));
+    }
+
+    @Test
+    public void outOfOrderFixIsRejected() {
+
+        assertTrue(mFilter.accept(LATITUDE, LONGITUDE, 20, NOW, NOW));
+        assertFalse(mFilter.accept(LATITUDE + 0.01, LONGITUDE, 20, NOW, NOW));
+        assertFalse(mFilter.accept(LATITUDE + 0.01, LONGITUDE, 20, NOW - 1000, NOW));
+    }
+
+    @Test
+    public void smallMovementIsRejected() {
+
+        assertTrue(mFilter.accept(LATITUDE, LONGITUDE, 20, NOW, NOW));
+        assertFalse(mFilter.accept(LATITUDE + 0.00005, LONGITUDE, 20, NOW + 1000, NOW + 1000)); // about 5.5 meters
+        assertTrue(mFilter.accept(LATITUDE + 0.001, LONGITUDE, 20, NOW + 2000, NOW + 2000)); // about 111 meters
+    }
+
+    @Test
+    public void rejectedFixIsNotRecorded() {
+
+        assertTrue(mFilter.accept(LATITUDE, LONGITUDE, 20, NOW, NOW));
+        assertFalse(mFilter.accept(LATITUDE + 0.001, LONGITUDE, 100, NOW + 1000, NOW + 1000));
+
+        // still measured from the first fix, not the inaccurate one
+        assertFalse(mFilter.accept(LATITUDE + 0.00005, LONGITUDE, 20, NOW + 2000, NOW + 2000));
+    }
+
+    @Test
+    public void resetForgetsLastFix() {
+
+        assertTrue(mFilter.accept(LATITUDE, LONGITUDE, 20, NOW, NOW));
+        mFilter.reset();
+        assertTrue(mFilter.accept(LATITUDE, LONGITUDE, 20, NOW, NOW));
+    }
+}
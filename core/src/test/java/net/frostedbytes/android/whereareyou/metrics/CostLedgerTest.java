@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.frostedbytes.android.whereareyou.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CostLedgerTest {
+
+    @Before
+    public void setUp() {
+
+        CostLedger.reset();
+        CostLedger.setBudget("test", 10, 0);
+    }
+
+    @Test
+    public void hourStateRoundTrip() {
+
+        CostLedger.read("test", 11);
+        assertTrue(CostLedger.isOverBudget("test"));
+
+        String state = CostLedger.getHourState();
+        CostLedger.reset();
+        assertFalse(CostLedger.isOverBudget("test"));
+
+        CostLedger.restoreHour(state);
+        assertTrue(CostLedger.isOverBudget("test"));
+        assertEquals(state, CostLedger.getHourState());
+    }
+
+    @Test
+    public void previousHourIsIgnored() {
+
+        CostLedger.restoreHour("0\ntest 11 0");
+        assertFalse(CostLedger.isOverBudget("test"));
+    }
+
+    @Test
+    public void unreadableStateIsIgnored() {
+
+        CostLedger.restoreHour(null);
+        CostLedger.restoreHour("");
+        CostLedger.restoreHour("not a ledger");
+        assertFalse(CostLedger.isOverBudget("test"));
+    }
+}
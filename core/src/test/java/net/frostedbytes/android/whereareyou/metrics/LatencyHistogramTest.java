@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.frostedbytes.android.whereareyou.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void percentilesReportBucketBounds() {
+
+        LatencyHistogram histogram = new LatencyHistogram("percentiles");
+        for (int index = 0; index < 90; index++) {
+            histogram.recordMicros(50);
+        }
+
+        for (int index = 0; index < 10; index++) {
+            histogram.recordMicros(1500);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getPercentile(0.5));
+        assertEquals(100, histogram.getPercentile(0.9));
+        assertEquals(1500, histogram.getPercentile(0.91)); // 2000 bucket, capped at the largest value
+        assertEquals(1500, histogram.getPercentile(0.99));
+        assertEquals(1500, histogram.getMax());
+        assertEquals(195, histogram.getMean());
+    }
+
+    @Test
+    public void boundsAreInclusive() {
+
+        LatencyHistogram histogram = new LatencyHistogram("bounds");
+        histogram.recordMicros(100);
+        histogram.recordMicros(101);
+        long[] buckets = histogram.getBuckets();
+        assertEquals(1, buckets[0]);
+        assertEquals(1, buckets[1]);
+    }
+
+    @Test
+    public void overflowBucket() {
+
+        LatencyHistogram histogram = new LatencyHistogram("overflow");
+        histogram.recordMicros(10);
+        histogram.recordMicros(90000000);
+        long[] buckets = histogram.getBuckets();
+        assertEquals(LatencyHistogram.BOUNDS.length + 1, buckets.length);
+        assertEquals(1, buckets[buckets.length - 1]);
+        assertEquals(90000000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void nanosAndNegativeValues() {
+
+        LatencyHistogram histogram = new LatencyHistogram("nanos");
+        histogram.recordNanos(250000); // 250 microseconds
+        histogram.recordMicros(-5);
+        assertEquals(250, histogram.getMax());
+        long[] buckets = histogram.getBuckets();
+        assertEquals(1, buckets[0]);
+        assertEquals(1, buckets[2]);
+    }
+
+    @Test
+    public void resetClearsEverything() {
+
+        LatencyHistogram histogram = new LatencyHistogram("reset");
+        histogram.recordMicros(5000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FriendDiffTest {
+
+    @Test
+    public void sameItemMatchesOnId() {
+
+        Friend oldFriend = createFriend("a", "Alice");
+        Friend newFriend = createFriend("a", "Alicia");
+        assertTrue(FriendDiff.isSameItem(oldFriend, newFriend));
+        assertFalse(FriendDiff.isSameItem(oldFriend, createFriend("b", "Alice")));
+    }
+
+    @Test
+    public void displayChangesOnNameEmailOrStatus() {
+
+        Friend oldFriend = createFriend("a", "Alice");
+        assertTrue(FriendDiff.isSameDisplay(oldFriend, new Friend(oldFriend)));
+
+        Friend renamed = new Friend(oldFriend);
+        renamed.FullName = "Alicia";
+        assertFalse(FriendDiff.isSameDisplay(oldFriend, renamed));
+
+        Friend email = new Friend(oldFriend);
+        email.Email = "alicia@example.com";
+        assertFalse(FriendDiff.isSameDisplay(oldFriend, email));
+
+        Friend accepted = new Friend(oldFriend);
+        accepted.Status = FriendStatus.ACCEPTED;
+        assertFalse(FriendDiff.isSameDisplay(oldFriend, accepted));
+    }
+
+    @Test
+    public void contentChangesOnUpdatedDate() {
+
+        Friend oldFriend = createFriend("a", "Alice");
+        Friend updated = new Friend(oldFriend);
+        updated.UpdatedDate++;
+        assertTrue(FriendDiff.isSameDisplay(oldFriend, updated));
+        assertFalse(FriendDiff.isSameContent(oldFriend, updated));
+    }
+
+    @Test
+    public void contentIgnoresPosition() {
+
+        Friend oldFriend = createFriend("a", "Alice");
+        Friend moved = new Friend(oldFriend);
+        moved.Latitude += 1;
+        moved.Longitude += 1;
+        moved.TimeStamp++;
+        assertTrue(FriendDiff.isSameContent(oldFriend, moved));
+    }
+
+    @Test
+    public void nullNameAndEmail() {
+
+        Friend oldFriend = createFriend("a", "Alice");
+        oldFriend.FullName = null;
+        oldFriend.Email = null;
+        assertTrue(FriendDiff.isSameDisplay(oldFriend, new Friend(oldFriend)));
+
+        Friend named = new Friend(oldFriend);
+        named.FullName = "Alice";
+        assertFalse(FriendDiff.isSameDisplay(oldFriend, named));
+        assertFalse(FriendDiff.isSameDisplay(named, oldFriend));
+        assertFalse(FriendDiff.isUnchanged(Arrays.asList(oldFriend), Arrays.asList(named)));
+    }
+
+    @Test
+    public void unchangedLists() {
+
+        List<Friend> oldFriends = Arrays.asList(createFriend("a", "Alice"), createFriend("b", "Bob"));
+        List<Friend> newFriends = new ArrayList<>();
+        for (Friend friend : oldFriends) {
+            newFriends.add(new Friend(friend));
+        }
+
+        assertTrue(FriendDiff.isUnchanged(oldFriends, newFriends));
+        assertTrue(FriendDiff.isUnchanged(new ArrayList<>(), new ArrayList<>()));
+    }
+
+    @Test
+    public void changedLists() {
+
+        Friend alice = createFriend("a", "Alice");
+        Friend bob = createFriend("b", "Bob");
+        List<Friend> oldFriends = Arrays.asList(alice, bob);
+
+        // order, membership and content
+        assertFalse(FriendDiff.isUnchanged(oldFriends, Arrays.asList(bob, alice)));
+        assertFalse(FriendDiff.isUnchanged(oldFriends, Arrays.asList(alice)));
+        Friend renamed = new Friend(bob);
+        renamed.FullName = "Robert";
+        assertFalse(FriendDiff.isUnchanged(oldFriends, Arrays.asList(alice, renamed)));
+    }
+
+    /*
+        Private Support Methods
+     */
+    private static Friend createFriend(String id, String fullName) {
+
+        Friend friend = new Friend();
+        friend.Email = fullName.toLowerCase() + "@example.com";
+        friend.FullName = fullName;
+        friend.Id = id;
+        friend.Status = FriendStatus.PENDING;
+        friend.UpdatedDate = 1540000000000L;
+        return friend;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.frostedbytes.android.whereareyou.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ModelCodecTest {
+
+    @Test
+    public void friendRoundTrip() {
+
+        Friend friend = createFriend(1);
+        assertFriendEquals(friend, ModelCodec.decodeFriend(ModelCodec.encode(friend)));
+    }
+
+    @Test
+    public void friendsRoundTrip() {
+
+        List<Friend> friends = new ArrayList<>();
+        for (int index = 0; index < 50; index++) {
+            friends.add(createFriend(index));
+        }
+
+        List<Friend> decoded = ModelCodec.decodeFriends(ModelCodec.encode(friends));
+        assertEquals(friends.size(), decoded.size());
+        for (int index = 0; index < friends.size(); index++) {
+            assertFriendEquals(friends.get(index), decoded.get(index));
+        }
+    }
+
+    @Test
+    public void emptyFriendsRoundTrip() {
+        assertEquals(0, ModelCodec.decodeFriends(ModelCodec.encode(new ArrayList<>())).size());
+    }
+
+    @Test
+    public void userRoundTrip() {
+
+        User user = createUser();
+        User decoded = ModelCodec.decodeUser(ModelCodec.encode(user));
+        assertEquals(user.Email, decoded.Email);
+        assertEquals(user.Frequency, decoded.Frequency);
+        assertEquals(user.FullName, decoded.FullName);
+        assertEquals(user.Id, decoded.Id);
+        assertEquals(user.Latitude, decoded.Latitude, 0);
+        assertEquals(user.Longitude, decoded.Longitude, 0);
+        assertEquals(user.PhotoUri, decoded.PhotoUri);
+        assertEquals(user.TimeStamp, decoded.TimeStamp);
+    }
+
+    @Test
+    public void nullStringsRoundTrip() {
+
+        User user = createUser();
+        user.PhotoUri = null;
+        user.FullName = null;
+        User decoded = ModelCodec.decodeUser(ModelCodec.encode(user));
+        assertNull(decoded.PhotoUri);
+        assertNull(decoded.FullName);
+
+        Friend friend = createFriend(2);
+        friend.PhotoUri = null;
+        assertNull(ModelCodec.decodeFriend(ModelCodec.encode(friend)).PhotoUri);
+    }
+
+    @Test
+    public void nonAsciiRoundTrip() {
+
+        Friend friend = createFriend(3);
+        friend.FullName = "Zoë Ångström 山田";
+        assertEquals(friend.FullName, ModelCodec.decodeFriend(ModelCodec.encode(friend)).FullName);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersionIsRejected() {
+
+        byte[] bytes = ModelCodec.encode(createUser());
+        bytes[0] = 99;
+        ModelCodec.decodeUser(bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedBytesAreRejected() {
+
+        byte[] bytes = ModelCodec.encode(createFriend(4));
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        ModelCodec.decodeFriend(truncated);
+    }
+
+    /*
+        Private Support Methods
+     */
+    private static void assertFriendEquals(Friend expected, Friend actual) {
+
+        assertEquals(expected.Email, actual.Email);
+        assertEquals(expected.FullName, actual.FullName);
+        assertEquals(expected.Id, actual.Id);
+        assertEquals(expected.Latitude, actual.Latitude, 0);
+        assertEquals(expected.Longitude, actual.Longitude, 0);
+        assertEquals(expected.PhotoUri, actual.PhotoUri);
+        assertEquals(expected.Status, actual.Status);
+        assertEquals(expected.TimeStamp, actual.TimeStamp);
+        assertEquals(expected.UpdatedDate, actual.UpdatedDate);
+    }
+
+    private static Friend createFriend(int index) {
+
+        Friend friend = new Friend();
+        friend.Email = "friend" + index + "@example.com";
+        friend.FullName = "Friend " + index;
+        friend.Id = "friend-" + index;
+        friend.Latitude = 40.7128 + index / 1000.0;
+        friend.Longitude = -74.0060 - index / 1000.0;
+        friend.PhotoUri = "https://example.com/photos/" + index + ".png";
+        friend.Status = index % 4;
+        friend.TimeStamp = 1540000000000L + index;
+        friend.UpdatedDate = 1540000001000L + index;
+        return friend;
+    }
+
+    private static User createUser() {
+
+        User user = new User();
+        user.Email = "user@example.com";
+        user.Frequency = 5;
+        user.FullName = "Example User";
+        user.Id = "user-id";
+        user.Latitude = 51.5074;
+        user.Longitude = -0.1278;
+        user.PhotoUri = "https://example.com/photos/user.png";
+        user.TimeStamp = 1540000000000L;
+        return user;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.frostedbytes.android.whereareyou.data.DocumentMaps;
+import net.frostedbytes.android.whereareyou.loadgen.FriendGraph.Member;
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
+import net.frostedbytes.android.whereareyou.models.Invite;
+import net.frostedbytes.android.whereareyou.models.User;
+import net.frostedbytes.android.whereareyou.models.UserLocation;
+import net.frostedbytes.android.whereareyou.utils.EmailUtils;
+
+/**
+ * The app as it is now:
+ * - session start: profile and directory entry in one batch, then the invites addressed to the user
+ * - FriendsRepository: one listener on Users/{id}/Friends
+ * - MappingFragment: one listener on Locations where Viewers contains the user
+ * - LocationService: one Locations/{id} write per accepted fix, for every user whether the app is open or not
+ * - ContactMatcher: one directory entry read per contact, keyed by email hash; a request for the first new match
+ */
+class CurrentScenario extends Scenario {
+
+    private final Map<String, List<String>> mViewers = new HashMap<>();
+
+    CurrentScenario(Firestore firestore, FriendGraph graph, LoadMetrics metrics, LoadOptions options, Requests requests) {
+        super(firestore, graph, metrics, options, requests);
+    }
+
+    @Override
+    void seed() throws ExecutionException, InterruptedException {
+
+        for (Member member : mGraph.Members) {
+            User user = member.User;
+            seedSet(User.USERS_ROOT, users().document(user.Id), DocumentMaps.fromUser(user));
+            seedSet(
+                User.DIRECTORY_ROOT,
+                directory().document(EmailUtils.hash(user.Email)),
+                DocumentMaps.fromUser(user),
+                SetOptions.mergeFields("FullName", "Id"));
+            for (Friend friend : member.Friends) {
+                seedSet(Friend.FRIENDS_ROOT, friends(user.Id).document(friend.Id), DocumentMaps.fromFriend(friend));
+            }
+
+            List<String> viewers = member.getViewers();
+            mViewers.put(user.Id, viewers);
+            seedSet(UserLocation.LOCATIONS_ROOT, locations().document(user.Id), DocumentMaps.fromUserLocation(toLocation(user, viewers)));
+        }
+
+        flushSeed();
+    }
+
+    @Override
+    void startSession(Member member) {
+
+        User user = member.User;
+        String emailHash = EmailUtils.hash(user.Email);
+        mRequests.write(
+            "session.profile",
+            () -> {
+                WriteBatch batch = mFirestore.batch();
+                batch.set(users().document(user.Id), DocumentMaps.fromUser(user), SetOptions.mergeFields("Email", "FullName", "Id"));
+                batch.set(directory().document(emailHash), DocumentMaps.fromUser(user), SetOptions.mergeFields("FullName", "Id"));
+                return batch.commit();
+            },
+            2);
+        mRequests.read(
+            "session.invites",
+            () -> mFirestore.collection(Invite.INVITES_ROOT).document(emailHash).collection(Invite.REQUESTERS_ROOT).get(),
+            Scenario::billed,
+            null);
+        listen("listener.friends", friends(user.Id), false);
+        listen("listener.locations", locations().whereArrayContains("Viewers", user.Id), true);
+    }
+
+    @Override
+    void tick(Member member, Random random) {
+
+        if (random.nextDouble() < mOptions.Move) {
+            User user = member.User;
+            user.Latitude += (random.nextDouble() - 0.5) * 0.001;
+            user.Longitude += (random.nextDouble() - 0.5) * 0.001;
+            user.TimeStamp = System.currentTimeMillis();
+            Map<String, Object> data = DocumentMaps.fromUserLocation(toLocation(user, mViewers.get(user.Id)));
+            mRequests.write("location.publish", () -> locations().document(user.Id).set(data), 1);
+        }
+
+        if (member.Online && random.nextDouble() < mOptions.Lookup) {
+            List<String> hashes = new ArrayList<>(mOptions.Contacts);
+            for (int index = 0; index < mOptions.Contacts; index++) {
+                hashes.add(EmailUtils.hash(pickContactEmail(random)));
+            }
+
+            matchContacts(member, hashes);
+        }
+    }
+
+    private CollectionReference directory() {
+        return mFirestore.collection(User.DIRECTORY_ROOT);
+    }
+
+    private CollectionReference locations() {
+        return mFirestore.collection(UserLocation.LOCATIONS_ROOT);
+    }
+
+    private void matchContacts(Member member, List<String> hashes) {
+
+        AtomicBoolean requested = new AtomicBoolean();
+        for (String hash : hashes) {
+            mRequests.read("directory.get", () -> directory().document(hash).get(), snapshot -> 1, snapshot -> {
+
+                if (snapshot.exists() && !isKnown(member, snapshot.getString("Id")) && requested.compareAndSet(false, true)) {
+                    request(member, snapshot);
+                }
+            });
+        }
+    }
+
+    private void request(Member member, DocumentSnapshot entry) {
+
+        Friend friend = new Friend();
+        friend.Id = entry.getString("Id");
+        friend.FullName = entry.getString("FullName");
+        friend.Status = FriendStatus.WAITING;
+        Friend userAsFriend = new Friend(member.User);
+        userAsFriend.Status = FriendStatus.counterpart(friend.Status);
+        mRequests.write(
+            "friend.request",
+            () -> {
+                WriteBatch batch = mFirestore.batch();
+                batch.set(friends(member.User.Id).document(friend.Id), DocumentMaps.fromFriend(friend));
+                batch.set(friends(friend.Id).document(member.User.Id), DocumentMaps.fromFriend(userAsFriend));
+                return batch.commit();
+            },
+            2);
+        mMetrics.addDocuments(Friend.FRIENDS_ROOT, 2);
+    }
+
+    private static UserLocation toLocation(User user, List<String> viewers) {
+
+        UserLocation location = new UserLocation(user);
+        location.Viewers.addAll(viewers);
+        return location;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+
+import io.grpc.ManagedChannelBuilder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Date;
+
+/**
+ * Connects the server client library to the local Firestore emulator, which speaks plain text gRPC and accepts the
+ * "owner" token in place of real credentials (security rules are bypassed).
+ */
+class EmulatorFirestore {
+
+    private static class OwnerCredentials extends GoogleCredentials {
+
+        private static final AccessToken OWNER = new AccessToken("owner", new Date(Long.MAX_VALUE));
+
+        OwnerCredentials() {
+            super(OWNER);
+        }
+
+        @Override
+        public AccessToken refreshAccessToken() {
+            return OWNER;
+        }
+    }
+
+    static Firestore connect(LoadOptions options) {
+
+        return FirestoreOptions.newBuilder()
+            .setProjectId(options.Project)
+            .setHost(options.Host)
+            .setCredentials(new OwnerCredentials())
+            .setChannelProvider(
+                InstantiatingGrpcChannelProvider.newBuilder()
+                    .setEndpoint(options.Host)
+                    .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                    .build())
+            .build()
+            .getService();
+    }
+
+    /**
+     * Deletes every document of the project through the emulator's REST endpoint.
+     *
+     * @param options - Emulator host and project
+     * @throws IOException - if the emulator cannot be reached or refuses the request
+     */
+    static void clear(LoadOptions options) throws IOException {
+
+        URL url = new URL(
+            String.format("http://%s/emulator/v1/projects/%s/databases/(default)/documents", options.Host, options.Project));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("DELETE");
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Emulator refused to clear documents: HTTP " + code);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
+import net.frostedbytes.android.whereareyou.models.User;
+
+/**
+ * Synthetic population of registered users and the friendships between them. Every friendship is symmetric, as in
+ * the app: each side holds a Friend document for the other with complementary statuses.
+ */
+class FriendGraph {
+
+    /**
+     * One simulated account.
+     */
+    static class Member {
+
+        final User User;
+        final List<Friend> Friends = new ArrayList<>();
+        boolean Online;
+
+        Member(User user) {
+            User = user;
+        }
+
+        /**
+         * @return - Identifiers of the friends this member shares a location with
+         */
+        List<String> getViewers() {
+
+            List<String> viewers = new ArrayList<>();
+            for (Friend friend : Friends) {
+                if (FriendStatus.isSharing(friend.Status)) {
+                    viewers.add(friend.Id);
+                }
+            }
+
+            return viewers;
+        }
+    }
+
+    final List<Member> Members;
+    int Friendships;
+
+    private FriendGraph(List<Member> members) {
+        Members = members;
+    }
+
+    /**
+     * Builds the graph by giving every user about half of the mean friend count as outgoing requests to random users;
+     * together with the requests received this yields the mean.
+     *
+     * @param options - Size and shape of the graph
+     * @param random - Source of every random choice
+     * @return - Graph of options.Users members
+     */
+    static FriendGraph create(LoadOptions options, Random random) {
+
+        List<Member> members = new ArrayList<>(options.Users);
+        for (int index = 0; index < options.Users; index++) {
+            User user = new User();
+            user.Id = String.format(Locale.ENGLISH, "user%08d", index);
+            user.Email = String.format(Locale.ENGLISH, "user%d@example.com", index);
+            user.FullName = String.format(Locale.ENGLISH, "Load User %d", index);
+            user.Latitude = 40.0 + random.nextDouble();
+            user.Longitude = -75.0 + random.nextDouble();
+            user.TimeStamp = System.currentTimeMillis();
+            Member member = new Member(user);
+            member.Online = random.nextDouble() < options.Online;
+            members.add(member);
+        }
+
+        FriendGraph graph = new FriendGraph(members);
+        List<Set<Integer>> linked = new ArrayList<>(options.Users);
+        for (int index = 0; index < options.Users; index++) {
+            linked.add(new HashSet<>());
+        }
+
+        int requests = Math.max(1, options.Friends / 2);
+        for (int index = 0; index < options.Users; index++) {
+            int sent = 0;
+            for (int attempt = 0; sent < requests && attempt < requests * 4; attempt++) {
+                int other = random.nextInt(options.Users);
+                if (other == index ||
+                    linked.get(index).contains(other) ||
+                    linked.get(index).size() >= options.Friends ||
+                    linked.get(other).size() >= options.Friends) {
+                    continue;
+                }
+
+                linked.get(index).add(other);
+                linked.get(other).add(index);
+                int status = random.nextDouble() < options.Pending ? FriendStatus.WAITING : FriendStatus.ACCEPTED;
+                graph.link(members.get(index), members.get(other), status);
+                sent++;
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * @param requester - Member that sent the request
+     * @param recipient - Member that received it
+     * @param status - Status under the requester; the recipient gets its counterpart
+     */
+    void link(Member requester, Member recipient, int status) {
+
+        Friend friend = new Friend(recipient.User);
+        friend.Status = status;
+        requester.Friends.add(friend);
+        Friend userAsFriend = new Friend(requester.User);
+        userAsFriend.Status = FriendStatus.counterpart(status);
+        recipient.Friends.add(userAsFriend);
+        Friendships++;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.SetOptions;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import net.frostedbytes.android.whereareyou.data.DocumentMaps;
+import net.frostedbytes.android.whereareyou.loadgen.FriendGraph.Member;
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.FriendStatus;
+import net.frostedbytes.android.whereareyou.models.User;
+
+/**
+ * The app before locations moved to their own collection, kept as a baseline. Only users with the app open generate
+ * load, as the map's timer did all the publishing:
+ * - FriendListFragment: a listener on Users/{id}/Friends, a scan of the whole Users collection and a read of every
+ *   other user's friend list, looking for requests addressed to this user
+ * - MappingFragment.getLastLocation: every tick, a merge into Users/{id} and one into each accepted friend's copy of
+ *   this user, then a query of the accepted friends to redraw the map
+ * - onAddSharingContact: a query of Users by email, then the two request writes
+ */
+class LegacyScenario extends Scenario {
+
+    LegacyScenario(Firestore firestore, FriendGraph graph, LoadMetrics metrics, LoadOptions options, Requests requests) {
+        super(firestore, graph, metrics, options, requests);
+    }
+
+    @Override
+    void seed() throws ExecutionException, InterruptedException {
+
+        for (Member member : mGraph.Members) {
+            seedSet(User.USERS_ROOT, users().document(member.User.Id), DocumentMaps.fromUser(member.User));
+            for (Friend friend : member.Friends) {
+                seedSet(Friend.FRIENDS_ROOT, friends(member.User.Id).document(friend.Id), DocumentMaps.fromFriend(friend));
+            }
+        }
+
+        flushSeed();
+    }
+
+    @Override
+    void startSession(Member member) {
+
+        String userId = member.User.Id;
+        listen("listener.friends", friends(userId), true);
+        mRequests.read("users.scan", () -> users().get(), snapshot -> Math.max(1, snapshot.size()), snapshot -> {
+
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                if (!document.getId().equals(userId)) {
+                    mRequests.read("friends.scan", () -> friends(document.getId()).get(), Scenario::billed, null);
+                }
+            }
+        });
+    }
+
+    @Override
+    void tick(Member member, Random random) {
+
+        if (!member.Online) {
+            return;
+        }
+
+        // the timer published on every tick; without movement only the timestamp changed
+        User user = member.User;
+        if (random.nextDouble() < mOptions.Move) {
+            user.Latitude += (random.nextDouble() - 0.5) * 0.001;
+            user.Longitude += (random.nextDouble() - 0.5) * 0.001;
+        }
+
+        user.TimeStamp = System.currentTimeMillis();
+        Map<String, Object> userData = DocumentMaps.fromUser(user);
+        mRequests.write("location.publish", () -> users().document(user.Id).set(userData, SetOptions.merge()), 1);
+        Map<String, Object> friendData = DocumentMaps.fromFriend(new Friend(user));
+        friendData.remove("Status"); // leave each side's status as it is
+        for (Friend friend : member.Friends) {
+            if (FriendStatus.isSharing(friend.Status)) {
+                mRequests.write(
+                    "location.fanout",
+                    () -> friends(friend.Id).document(user.Id).set(friendData, SetOptions.merge()),
+                    1);
+            }
+        }
+
+        mRequests.read(
+            "map.friends",
+            () -> friends(user.Id).whereEqualTo("Status", FriendStatus.ACCEPTED).get(),
+            Scenario::billed,
+            null);
+
+        if (random.nextDouble() < mOptions.Lookup) {
+            String email = pickContactEmail(random);
+            mRequests.read("users.email", () -> users().whereEqualTo("Email", email).get(), Scenario::billed, snapshot -> {
+
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    if (!isKnown(member, document.getId())) {
+                        request(member, document);
+                    }
+                }
+            });
+        }
+    }
+
+    private void request(Member member, DocumentSnapshot contact) {
+
+        Friend friend = new Friend();
+        friend.Id = contact.getId();
+        friend.Email = contact.getString("Email");
+        friend.FullName = contact.getString("FullName");
+        friend.Status = FriendStatus.WAITING;
+        Friend userAsFriend = new Friend(member.User);
+        userAsFriend.Status = FriendStatus.counterpart(friend.Status);
+        mRequests.write("friend.request", () -> friends(member.User.Id).document(friend.Id).set(DocumentMaps.fromFriend(friend)), 1);
+        mRequests.write("friend.request", () -> friends(friend.Id).document(member.User.Id).set(DocumentMaps.fromFriend(userAsFriend)), 1);
+        mMetrics.addDocuments(Friend.FRIENDS_ROOT, 2);
+    }
+}
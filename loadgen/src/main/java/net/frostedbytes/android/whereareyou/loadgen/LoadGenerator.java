@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import com.google.cloud.firestore.Firestore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.frostedbytes.android.whereareyou.loadgen.FriendGraph.Member;
+
+/**
+ * Headless load simulation against the local Firestore emulator. Seeds a synthetic friend graph, replays the app's
+ * access pattern for every simulated user at a fixed tick rate and reports reads and writes per second, request
+ * latencies and document counts. Start the emulator first, e.g. firebase emulators:start --only firestore.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Random random = new Random(options.Seed);
+        FriendGraph graph = FriendGraph.create(options, random);
+        LoadMetrics metrics = new LoadMetrics();
+        Requests requests = new Requests(options.Concurrency, metrics);
+        if (options.Clear) {
+            EmulatorFirestore.clear(options);
+        }
+
+        try (Firestore firestore = EmulatorFirestore.connect(options)) {
+            Scenario scenario = options.Scenario.equals("legacy") ?
+                new LegacyScenario(firestore, graph, metrics, options, requests) :
+                new CurrentScenario(firestore, graph, metrics, options, requests);
+
+            int online = 0;
+            for (Member member : graph.Members) {
+                online += member.Online ? 1 : 0;
+            }
+
+            System.out.println(
+                String.format(
+                    Locale.ENGLISH,
+                    "Seeding %s scenario: %d users, %d friendships, %d online",
+                    options.Scenario,
+                    graph.Members.size(),
+                    graph.Friendships,
+                    online));
+            scenario.seed();
+            metrics.reset();
+
+            System.out.println(String.format(Locale.ENGLISH, "Running for %d s at %.2f ticks/s", options.Duration, options.TickRate));
+            long start = System.nanoTime();
+            for (Member member : graph.Members) {
+                if (member.Online) {
+                    scenario.startSession(member);
+                }
+            }
+
+            AtomicLong lateTicks = new AtomicLong();
+            long period = Math.max(1, (long) (TimeUnit.SECONDS.toMicros(1) / options.TickRate));
+            ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+            ticker.scheduleAtFixedRate(() -> {
+
+                long tickStart = System.nanoTime();
+                for (Member member : graph.Members) {
+                    scenario.tick(member, random);
+                }
+
+                if (TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - tickStart) > period) {
+                    lateTicks.incrementAndGet();
+                }
+            }, 0, period, TimeUnit.MICROSECONDS);
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(options.Duration));
+            ticker.shutdown();
+            ticker.awaitTermination(1, TimeUnit.MINUTES);
+            if (!requests.drain(60)) {
+                System.err.println("Requests still in flight after a minute; results are incomplete.");
+            }
+
+            scenario.stop();
+            requests.shutdown();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println();
+            System.out.print(metrics.toText(seconds));
+            if (lateTicks.get() > 0) {
+                System.out.println(
+                    String.format(
+                        Locale.ENGLISH,
+                        "%n%d ticks overran their period; the emulator could not keep up with the requested rate.",
+                        lateTicks.get()));
+            }
+
+            if (!options.Output.isEmpty()) {
+                writeReport(options.Output, metrics.toJson(options, seconds));
+            }
+        }
+
+        System.exit(0);
+    }
+
+    private static void writeReport(String path, String json) throws IOException {
+
+        Files.write(Paths.get(path), json.getBytes(StandardCharsets.UTF_8));
+        System.out.println("Report written to " + path);
+    }
+}
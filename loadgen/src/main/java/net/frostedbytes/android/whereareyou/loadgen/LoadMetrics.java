@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Billing-style counts and latencies of a run. Reads follow Firestore's rules: one per document returned by a get,
+ * query or listener, and one for a query that returns nothing.
+ */
+class LoadMetrics {
+
+    /**
+     * Latencies of one kind of request; in microseconds.
+     */
+    static class Latencies {
+
+        private long[] mValues = new long[1024];
+        private int mCount;
+
+        synchronized void record(long micros) {
+
+            if (mCount == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mCount * 2);
+            }
+
+            mValues[mCount++] = micros;
+        }
+
+        synchronized long[] snapshot() {
+
+            long[] values = Arrays.copyOf(mValues, mCount);
+            Arrays.sort(values);
+            return values;
+        }
+    }
+
+    final AtomicLong Reads = new AtomicLong();
+    final AtomicLong Writes = new AtomicLong();
+    final AtomicLong Failures = new AtomicLong();
+
+    private final Map<String, AtomicLong> mDocuments = new TreeMap<>();
+    private final Map<String, Latencies> mLatencies = new TreeMap<>();
+
+    void addDocuments(String collection, long count) {
+
+        AtomicLong documents;
+        synchronized (mDocuments) {
+            documents = mDocuments.get(collection);
+            if (documents == null) {
+                documents = new AtomicLong();
+                mDocuments.put(collection, documents);
+            }
+        }
+
+        documents.addAndGet(count);
+    }
+
+    /**
+     * @param name - Kind of request, e.g. location.publish
+     * @param micros - Time from issuing the request to its completion
+     */
+    void recordLatency(String name, long micros) {
+
+        Latencies latencies;
+        synchronized (mLatencies) {
+            latencies = mLatencies.get(name);
+            if (latencies == null) {
+                latencies = new Latencies();
+                mLatencies.put(name, latencies);
+            }
+        }
+
+        latencies.record(micros);
+    }
+
+    void reset() {
+
+        Reads.set(0);
+        Writes.set(0);
+        Failures.set(0);
+        synchronized (mLatencies) {
+            mLatencies.clear();
+        }
+    }
+
+    /**
+     * @param seconds - Length of the measured run
+     * @return - Human readable summary
+     */
+    String toText(double seconds) {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ENGLISH, "Reads:    %d (%.1f/s)%n", Reads.get(), Reads.get() / seconds));
+        builder.append(String.format(Locale.ENGLISH, "Writes:   %d (%.1f/s)%n", Writes.get(), Writes.get() / seconds));
+        builder.append(String.format(Locale.ENGLISH, "Failures: %d%n", Failures.get()));
+        builder.append(String.format(Locale.ENGLISH, "%n%-24s %8s %10s %10s %10s%n", "Latency (ms)", "count", "p50", "p99", "max"));
+        synchronized (mLatencies) {
+            for (Map.Entry<String, Latencies> entry : mLatencies.entrySet()) {
+                long[] values = entry.getValue().snapshot();
+                builder.append(
+                    String.format(
+                        Locale.ENGLISH,
+                        "%-24s %8d %10.2f %10.2f %10.2f%n",
+                        entry.getKey(),
+                        values.length,
+                        percentile(values, 0.50) / 1000.0,
+                        percentile(values, 0.99) / 1000.0,
+                        values.length > 0 ? values[values.length - 1] / 1000.0 : 0));
+            }
+        }
+
+        builder.append(String.format(Locale.ENGLISH, "%n%-24s %10s%n", "Documents", "count"));
+        synchronized (mDocuments) {
+            for (Map.Entry<String, AtomicLong> entry : mDocuments.entrySet()) {
+                builder.append(String.format(Locale.ENGLISH, "%-24s %10d%n", entry.getKey(), entry.getValue().get()));
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @param options - Settings of the run, repeated in the report so results can be compared
+     * @param seconds - Length of the measured run
+     * @return - Report as a JSON object
+     */
+    String toJson(LoadOptions options, double seconds) {
+
+        StringBuilder builder = new StringBuilder("{\n");
+        builder.append(String.format(
+            Locale.ENGLISH,
+            "  \"scenario\": \"%s\",\n  \"users\": %d,\n  \"friends\": %d,\n  \"online\": %s,\n  \"tickRate\": %s,\n" +
+                "  \"durationSeconds\": %.3f,\n",
+            options.Scenario,
+            options.Users,
+            options.Friends,
+            options.Online,
+            options.TickRate,
+            seconds));
+        builder.append(String.format(
+            Locale.ENGLISH,
+            "  \"reads\": %d,\n  \"writes\": %d,\n  \"failures\": %d,\n  \"readsPerSecond\": %.3f,\n" +
+                "  \"writesPerSecond\": %.3f,\n",
+            Reads.get(),
+            Writes.get(),
+            Failures.get(),
+            Reads.get() / seconds,
+            Writes.get() / seconds));
+        builder.append("  \"latencyMillis\": {");
+        String separator = "\n";
+        synchronized (mLatencies) {
+            for (Map.Entry<String, Latencies> entry : mLatencies.entrySet()) {
+                long[] values = entry.getValue().snapshot();
+                builder.append(String.format(
+                    Locale.ENGLISH,
+                    "%s    \"%s\": {\"count\": %d, \"p50\": %.3f, \"p99\": %.3f}",
+                    separator,
+                    entry.getKey(),
+                    values.length,
+                    percentile(values, 0.50) / 1000.0,
+                    percentile(values, 0.99) / 1000.0));
+                separator = ",\n";
+            }
+        }
+
+        builder.append("\n  },\n  \"documents\": {");
+        separator = "\n";
+        synchronized (mDocuments) {
+            for (Map.Entry<String, AtomicLong> entry : mDocuments.entrySet()) {
+                builder.append(String.format(Locale.ENGLISH, "%s    \"%s\": %d", separator, entry.getKey(), entry.getValue().get()));
+                separator = ",\n";
+            }
+        }
+
+        builder.append("\n  }\n}\n");
+        return builder.toString();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
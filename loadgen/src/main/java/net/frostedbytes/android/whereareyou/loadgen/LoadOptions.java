@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import java.util.Locale;
+
+/**
+ * Command line settings of a load run; each option is given as --name=value.
+ */
+class LoadOptions {
+
+    static final String USAGE =
+        "Usage: loadgen [--option=value ...]\n" +
+        "  --host=localhost:8080     Firestore emulator host and port\n" +
+        "  --project=where-are-you-loadgen\n" +
+        "                            Project id used against the emulator\n" +
+        "  --scenario=current        current: access patterns of the app as it is now\n" +
+        "                            legacy: per-fix fan-out writes, users scan and email queries\n" +
+        "  --users=1000              Registered users in the synthetic graph\n" +
+        "  --friends=20              Mean number of friends per user\n" +
+        "  --pending=0.1             Fraction of friendships still waiting for an answer\n" +
+        "  --online=0.2              Fraction of users with the app open (map and friend list listeners)\n" +
+        "  --tick-rate=1             Ticks per second; every user publishes at most one fix per tick\n" +
+        "  --move=0.5                Chance a user has moved far enough per tick to publish a fix\n" +
+        "  --lookup=0.01             Chance per tick an online user looks up contacts to share with\n" +
+        "  --contacts=50             Contacts checked against the directory per lookup\n" +
+        "  --duration=60             Length of the measured run; in seconds\n" +
+        "  --concurrency=64          Most requests in flight at once\n" +
+        "  --seed=1                  Seed for the graph and the per-tick choices\n" +
+        "  --clear=true              Delete every emulator document before seeding\n" +
+        "  --output=                 Also write the report as JSON to this file\n";
+
+    String Host = "localhost:8080";
+    String Project = "where-are-you-loadgen";
+    String Scenario = "current";
+    int Users = 1000;
+    int Friends = 20;
+    double Pending = 0.1;
+    double Online = 0.2;
+    double TickRate = 1;
+    double Move = 0.5;
+    double Lookup = 0.01;
+    int Contacts = 50;
+    int Duration = 60;
+    int Concurrency = 64;
+    long Seed = 1;
+    boolean Clear = true;
+    String Output = "";
+
+    /**
+     * @param args - Command line arguments
+     * @return - Options, with defaults for anything not given
+     * @throws IllegalArgumentException - if an argument is unknown or its value does not parse
+     */
+    static LoadOptions parse(String[] args) {
+
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value but found " + arg);
+            }
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            try {
+                switch (name) {
+                    case "host": options.Host = value; break;
+                    case "project": options.Project = value; break;
+                    case "scenario": options.Scenario = value.toLowerCase(Locale.ENGLISH); break;
+                    case "users": options.Users = Integer.parseInt(value); break;
+                    case "friends": options.Friends = Integer.parseInt(value); break;
+                    case "pending": options.Pending = Double.parseDouble(value); break;
+                    case "online": options.Online = Double.parseDouble(value); break;
+                    case "tick-rate": options.TickRate = Double.parseDouble(value); break;
+                    case "move": options.Move = Double.parseDouble(value); break;
+                    case "lookup": options.Lookup = Double.parseDouble(value); break;
+                    case "contacts": options.Contacts = Integer.parseInt(value); break;
+                    case "duration": options.Duration = Integer.parseInt(value); break;
+                    case "concurrency": options.Concurrency = Integer.parseInt(value); break;
+                    case "seed": options.Seed = Long.parseLong(value); break;
+                    case "clear": options.Clear = Boolean.parseBoolean(value); break;
+                    case "output": options.Output = value; break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Value of --" + name + " is not a number: " + value, e);
+            }
+        }
+
+        if (!options.Scenario.equals("current") && !options.Scenario.equals("legacy")) {
+            throw new IllegalArgumentException("Unknown scenario " + options.Scenario);
+        }
+
+        if (options.Users < 2 || options.Friends < 1 || options.Friends >= options.Users) {
+            throw new IllegalArgumentException("Need at least two users and 1 <= friends < users.");
+        }
+
+        if (options.TickRate <= 0 || options.Duration <= 0 || options.Concurrency <= 0) {
+            throw new IllegalArgumentException("tick-rate, duration and concurrency must be positive.");
+        }
+
+        return options;
+    }
+}
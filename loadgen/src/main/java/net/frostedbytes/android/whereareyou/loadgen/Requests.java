@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Issues requests with a bound on how many are in flight, and books their reads, writes and latency. When the bound
+ * is reached the caller blocks, so a saturated emulator shows up as late ticks rather than unbounded queues. Results
+ * are handed on from a separate pool, so follow-up requests can wait for a permit without stalling completions.
+ */
+class Requests {
+
+    private final ExecutorService mCallbacks;
+    private final int mConcurrency;
+    private final LoadMetrics mMetrics;
+    private final Semaphore mPermits;
+
+    Requests(int concurrency, LoadMetrics metrics) {
+
+        mCallbacks = Executors.newCachedThreadPool(runnable -> {
+
+            Thread thread = new Thread(runnable, "loadgen-callback");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mConcurrency = concurrency;
+        mMetrics = metrics;
+        mPermits = new Semaphore(concurrency);
+    }
+
+    /**
+     * @param name - Kind of request; latencies are grouped by it
+     * @param request - Starts the request
+     * @param reads - Reads billed for the result
+     * @param writes - Writes billed when the request succeeds
+     * @param then - Called with the result on success; may be null
+     */
+    <T> void issue(String name, Supplier<ApiFuture<T>> request, ToLongFunction<T> reads, long writes, Consumer<T> then) {
+
+        mPermits.acquireUninterruptibly();
+        long start = System.nanoTime();
+        ApiFuture<T> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            mMetrics.Failures.incrementAndGet();
+            mPermits.release();
+            return;
+        }
+
+        ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+
+            @Override
+            public void onSuccess(T result) {
+
+                mMetrics.recordLatency(name, (System.nanoTime() - start) / 1000);
+                mMetrics.Reads.addAndGet(reads.applyAsLong(result));
+                mMetrics.Writes.addAndGet(writes);
+                mPermits.release();
+                if (then != null) {
+                    then.accept(result);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+
+                mMetrics.Failures.incrementAndGet();
+                mPermits.release();
+            }
+        }, mCallbacks);
+    }
+
+    <T> void read(String name, Supplier<ApiFuture<T>> request, ToLongFunction<T> reads, Consumer<T> then) {
+        issue(name, request, reads, 0, then);
+    }
+
+    <T> void write(String name, Supplier<ApiFuture<T>> request, long writes) {
+        issue(name, request, result -> 0, writes, null);
+    }
+
+    /**
+     * Waits for the requests in flight to finish.
+     *
+     * @param timeoutSeconds - Longest time to wait
+     * @return - True if every request finished in time
+     */
+    boolean drain(long timeoutSeconds) throws InterruptedException {
+
+        if (mPermits.tryAcquire(mConcurrency, timeoutSeconds, TimeUnit.SECONDS)) {
+            mPermits.release(mConcurrency);
+            return true;
+        }
+
+        return false;
+    }
+
+    void shutdown() {
+        mCallbacks.shutdown();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Ryan Ward
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.frostedbytes.android.whereareyou.loadgen;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import net.frostedbytes.android.whereareyou.loadgen.FriendGraph.Member;
+import net.frostedbytes.android.whereareyou.models.Friend;
+import net.frostedbytes.android.whereareyou.models.User;
+
+/**
+ * Access pattern of one version of the app. The generator seeds the graph through it, starts a session for every
+ * online member and calls tick() for every member at the tick rate.
+ */
+abstract class Scenario {
+
+    /**
+     * Most writes Firestore accepts in one batch.
+     */
+    private static final int MAX_BATCH_WRITES = 500;
+
+    protected final Firestore mFirestore;
+    protected final FriendGraph mGraph;
+    protected final LoadMetrics mMetrics;
+    protected final LoadOptions mOptions;
+    protected final Requests mRequests;
+
+    private final List<ListenerRegistration> mRegistrations = Collections.synchronizedList(new ArrayList<>());
+
+    private WriteBatch mSeedBatch;
+    private int mSeedWrites;
+
+    Scenario(Firestore firestore, FriendGraph graph, LoadMetrics metrics, LoadOptions options, Requests requests) {
+
+        mFirestore = firestore;
+        mGraph = graph;
+        mMetrics = metrics;
+        mOptions = options;
+        mRequests = requests;
+    }
+
+    /**
+     * Writes the documents the scenario expects to exist before the run; waits for every batch.
+     */
+    abstract void seed() throws ExecutionException, InterruptedException;
+
+    /**
+     * Opens the app for the member: session start requests and the listeners of the visible screens.
+     */
+    abstract void startSession(Member member);
+
+    /**
+     * One tick of the member's activity; called from a single thread, so the random source needs no locking.
+     */
+    abstract void tick(Member member, Random random);
+
+    /**
+     * Removes every listener opened by startSession().
+     */
+    void stop() {
+
+        synchronized (mRegistrations) {
+            for (ListenerRegistration registration : mRegistrations) {
+                registration.remove();
+            }
+
+            mRegistrations.clear();
+        }
+    }
+
+    /*
+        Shared access patterns
+     */
+    protected CollectionReference friends(String userId) {
+        return users().document(userId).collection(Friend.FRIENDS_ROOT);
+    }
+
+    protected CollectionReference users() {
+        return mFirestore.collection(User.USERS_ROOT);
+    }
+
+    /**
+     * @param snapshot - Result of a query
+     * @return - Reads billed for the query; one per document, and one if there were none
+     */
+    protected static long billed(QuerySnapshot snapshot) {
+        return Math.max(1, snapshot.size());
+    }
+
+    /**
+     * Attaches a snapshot listener and books its reads: every document of the first snapshot (at least one), then one
+     * per changed document.
+     *
+     * @param name - Prefix of the latencies recorded for the listener
+     * @param query - Query to listen to
+     * @param measurePropagation - If true, modified documents record the time since their TimeStamp field
+     */
+    protected void listen(String name, Query query, boolean measurePropagation) {
+
+        long start = System.nanoTime();
+        boolean[] initial = { true };
+        mRegistrations.add(query.addSnapshotListener((snapshot, e) -> {
+
+            if (e != null || snapshot == null) {
+                mMetrics.Failures.incrementAndGet();
+                return;
+            }
+
+            if (initial[0]) {
+                initial[0] = false;
+                mMetrics.recordLatency(name + ".initial", (System.nanoTime() - start) / 1000);
+                mMetrics.Reads.addAndGet(Math.max(1, snapshot.size()));
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                mMetrics.Reads.incrementAndGet();
+                if (measurePropagation && change.getType() == DocumentChange.Type.MODIFIED) {
+                    Long timeStamp = change.getDocument().getLong("TimeStamp");
+                    if (timeStamp != null && timeStamp > 0) {
+                        mMetrics.recordLatency(name + ".propagation", Math.max(0, now - timeStamp) * 1000);
+                    }
+                }
+            }
+        }));
+    }
+
+    /*
+        Seeding
+     */
+    protected void seedSet(String collection, DocumentReference document, Map<String, Object> data)
+        throws ExecutionException, InterruptedException {
+
+        seedSet(collection, document, data, null);
+    }
+
+    protected void seedSet(String collection, DocumentReference document, Map<String, Object> data, SetOptions options)
+        throws ExecutionException, InterruptedException {
+
+        if (mSeedBatch == null) {
+            mSeedBatch = mFirestore.batch();
+        }
+
+        if (options != null) {
+            mSeedBatch.set(document, data, options);
+        } else {
+            mSeedBatch.set(document, data);
+        }
+
+        mMetrics.addDocuments(collection, 1);
+        if (++mSeedWrites == MAX_BATCH_WRITES) {
+            flushSeed();
+        }
+    }
+
+    protected void flushSeed() throws ExecutionException, InterruptedException {
+
+        if (mSeedBatch != null && mSeedWrites > 0) {
+            mSeedBatch.commit().get();
+        }
+
+        mSeedBatch = null;
+        mSeedWrites = 0;
+    }
+
+    /**
+     * @param random - Source of the choice
+     * @return - Email of a registered member or, about half of the time, of someone who has not signed up
+     */
+    protected String pickContactEmail(Random random) {
+
+        if (random.nextBoolean()) {
+            return mGraph.Members.get(random.nextInt(mGraph.Members.size())).User.Email;
+        }
+
+        return "contact" + random.nextInt(Integer.MAX_VALUE) + "@example.net";
+    }
+
+    /**
+     * @param member - Member whose friend list is checked
+     * @param userId - Identifier of another user
+     * @return - True if the user is the member or already in the member's friend list
+     */
+    protected static boolean isKnown(Member member, String userId) {
+
+        if (member.User.Id.equals(userId)) {
+            return true;
+        }
+
+        for (Friend friend : member.Friends) {
+            if (friend.Id.equals(userId)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}